@@ -17,9 +17,12 @@ package aarddict;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Map;
 import java.util.UUID;
 
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
 public final class Article implements Serializable {
 
     public UUID     dictionaryUUID;
@@ -45,21 +48,87 @@ public final class Article implements Serializable {
         this.redirectedFromTitle = that.redirectedFromTitle;
     }
 
-    @SuppressWarnings("rawtypes")
-    static Article fromJsonStr(String serializedArticle) throws IOException {
-        Object[] articleTuple = Volume.mapper.readValue(serializedArticle, Object[].class);
-        Article article = new Article();
-        article.text = String.valueOf(articleTuple[0]);
-        if (articleTuple.length == 3) {
-                Map metadata = (Map)articleTuple[2];
-            if (metadata.containsKey("r")) {
-                article.redirect = String.valueOf(metadata.get("r"));
+    private final static JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Reads serialized article tuple <code>[text, tags, metadata]</code>
+     * token by token from UTF-8 bytes. Text is not decoded when
+     * <code>redirectOnly</code> is set, and nothing after the metadata is
+     * read.
+     */
+    static Article fromJson(byte[] data, int offset, int length, boolean redirectOnly)
+            throws IOException {
+        JsonParser parser = jsonFactory.createJsonParser(data, offset, length);
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Article is not an array");
+            }
+            Article article = new Article();
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY) {
+                throw new IOException("Article has no text");
+            }
+            if (token == JsonToken.START_ARRAY || token == JsonToken.START_OBJECT) {
+                throw new IOException("Article text is not a string");
+            }
+            if (!redirectOnly) {
+                article.text = scalarText(parser, token);
+            }
+            token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY) {
+                return article;
+            }
+            parser.skipChildren();
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return article;
+            }
+            String r = null;
+            String redirect = null;
+            boolean hasR = false;
+            boolean hasRedirect = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                token = parser.nextToken();
+                if (!hasR && "r".equals(name)) {
+                    r = scalarText(parser, token);
+                    hasR = true;
+                }
+                else if (!hasRedirect && "redirect".equals(name)) {
+                    redirect = scalarText(parser, token);
+                    hasRedirect = true;
+                }
+                else {
+                    parser.skipChildren();
+                }
             }
-            else if (metadata.containsKey("redirect")) {
-                article.redirect = String.valueOf(metadata.get("redirect"));
+            //Metadata only counts as the last element of the tuple
+            if (parser.nextToken() == JsonToken.END_ARRAY) {
+                article.redirect = hasR ? r : redirect;
             }
+            return article;
         }
-        return article;
+        finally {
+            parser.close();
+        }
+    }
+
+    private static String scalarText(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.START_ARRAY || token == JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return "null";
+        }
+        return parser.getText();
+    }
+
+    /**
+     * Link this article redirects to, without the section it was opened
+     * with.
+     */
+    String getRedirectLink() {
+        return this.redirect;
     }
 
     public String getRedirect() {
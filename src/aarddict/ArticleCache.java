@@ -0,0 +1,299 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of decoded articles shared by all volumes, keyed by volume id and
+ * article pointer and bounded by the estimated size of the articles in
+ * bytes. Eviction is segmented LRU: new articles enter a probation segment
+ * and move to a protected segment when they are read again, so a burst of
+ * articles read once doesn't flush the ones that are read repeatedly.
+ * <p>
+ * Optionally articles evicted from the main cache are kept in a second
+ * tier as UTF-8 bytes, which for most languages takes about half the
+ * space of a Java string.
+ * <p>
+ * Articles are copied on the way in and out, callers are free to modify
+ * what they get.
+ */
+public final class ArticleCache {
+
+    private final static int ARTICLE_OVERHEAD = 128;
+
+    final static ArticleCache shared = new ArticleCache(2 << 20);
+
+    private final static class Key {
+
+        final String volumeId;
+        final long   pointer;
+
+        Key(String volumeId, long pointer) {
+            this.volumeId = volumeId;
+            this.pointer = pointer;
+        }
+
+        @Override
+        public int hashCode() {
+            return volumeId.hashCode() * 31 + (int)(pointer ^ (pointer >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return pointer == other.pointer && volumeId.equals(other.volumeId);
+        }
+    }
+
+    private final static class Compact {
+
+        final Article template;
+        final byte[]  text;
+
+        Compact(Article article) {
+            this.template = new Article(article);
+            this.template.text = null;
+            this.text = utf8Bytes(article.text);
+        }
+
+        Article toArticle() {
+            Article result = new Article(template);
+            result.text = Decompressor.utf8(text, 0, text.length);
+            return result;
+        }
+    }
+
+    private final LinkedHashMap<Key, Article> probation = new LinkedHashMap<Key, Article>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Article> protect   = new LinkedHashMap<Key, Article>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Compact> compact   = new LinkedHashMap<Key, Compact>(16, 0.75f, true);
+
+    private long    capacity;
+    private long    probationSize;
+    private long    protectedSize;
+    private long    compactSize;
+    private boolean compactTierEnabled;
+
+    private long    hits;
+    private long    compactHits;
+    private long    misses;
+
+    ArticleCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    static long sizeOf(Article a) {
+        long size = ARTICLE_OVERHEAD;
+        if (a.text != null) {
+            size += 2 * a.text.length();
+        }
+        if (a.title != null) {
+            size += 2 * a.title.length();
+        }
+        return size;
+    }
+
+    private static long sizeOf(Compact c) {
+        return ARTICLE_OVERHEAD + c.text.length;
+    }
+
+    private static byte[] utf8Bytes(String s) {
+        try {
+            return s == null ? new byte[0] : s.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long protectedCapacity() {
+        return capacity * 4 / 5;
+    }
+
+    private long compactCapacity() {
+        return compactTierEnabled ? capacity / 2 : 0;
+    }
+
+    Article get(String volumeId, long pointer) {
+        Key key = new Key(volumeId, pointer);
+        Compact c;
+        synchronized (this) {
+            Article a = protect.get(key);
+            if (a == null) {
+                a = probation.remove(key);
+                if (a != null) {
+                    probationSize -= sizeOf(a);
+                    protect.put(key, a);
+                    protectedSize += sizeOf(a);
+                    trim();
+                }
+            }
+            if (a != null) {
+                hits++;
+                return new Article(a);
+            }
+            c = compact.remove(key);
+            if (c == null) {
+                misses++;
+                return null;
+            }
+            compactSize -= sizeOf(c);
+            compactHits++;
+        }
+        Article a = c.toArticle();
+        put(volumeId, pointer, a);
+        return a;
+    }
+
+    /**
+     * Whether an article is cached. Unlike {@link #get} this doesn't
+     * count as a read.
+     */
+    synchronized boolean contains(String volumeId, long pointer) {
+        Key key = new Key(volumeId, pointer);
+        return protect.containsKey(key) || probation.containsKey(key) || compact.containsKey(key);
+    }
+
+    void put(String volumeId, long pointer, Article article) {
+        Key key = new Key(volumeId, pointer);
+        Article a = new Article(article);
+        long size = sizeOf(a);
+        synchronized (this) {
+            // an older copy must go even if this one is too large to keep
+            remove(key);
+            if (size > capacity) {
+                return;
+            }
+            probation.put(key, a);
+            probationSize += size;
+            trim();
+        }
+    }
+
+    private void remove(Key key) {
+        Article old = probation.remove(key);
+        if (old != null) {
+            probationSize -= sizeOf(old);
+        }
+        old = protect.remove(key);
+        if (old != null) {
+            protectedSize -= sizeOf(old);
+        }
+        Compact c = compact.remove(key);
+        if (c != null) {
+            compactSize -= sizeOf(c);
+        }
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Key, Article>> i = protect.entrySet().iterator();
+        while (protectedSize > protectedCapacity() && i.hasNext()) {
+            Map.Entry<Key, Article> e = i.next();
+            long size = sizeOf(e.getValue());
+            i.remove();
+            protectedSize -= size;
+            probation.put(e.getKey(), e.getValue());
+            probationSize += size;
+        }
+        i = probation.entrySet().iterator();
+        while (probationSize + protectedSize > capacity && i.hasNext()) {
+            Map.Entry<Key, Article> e = i.next();
+            probationSize -= sizeOf(e.getValue());
+            i.remove();
+            if (compactTierEnabled) {
+                Compact c = new Compact(e.getValue());
+                compact.put(e.getKey(), c);
+                compactSize += sizeOf(c);
+            }
+        }
+        Iterator<Compact> j = compact.values().iterator();
+        while (compactSize > compactCapacity() && j.hasNext()) {
+            compactSize -= sizeOf(j.next());
+            j.remove();
+        }
+    }
+
+    synchronized void removeVolume(String volumeId) {
+        for (Iterator<Map.Entry<Key, Article>> i = probation.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Key, Article> e = i.next();
+            if (e.getKey().volumeId.equals(volumeId)) {
+                probationSize -= sizeOf(e.getValue());
+                i.remove();
+            }
+        }
+        for (Iterator<Map.Entry<Key, Article>> i = protect.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Key, Article> e = i.next();
+            if (e.getKey().volumeId.equals(volumeId)) {
+                protectedSize -= sizeOf(e.getValue());
+                i.remove();
+            }
+        }
+        for (Iterator<Map.Entry<Key, Compact>> i = compact.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Key, Compact> e = i.next();
+            if (e.getKey().volumeId.equals(volumeId)) {
+                compactSize -= sizeOf(e.getValue());
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Sets the estimated number of bytes decoded articles may take. The
+     * compact tier, when enabled, may take up to half as much in addition.
+     */
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        trim();
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void setCompactTierEnabled(boolean enabled) {
+        this.compactTierEnabled = enabled;
+        trim();
+    }
+
+    public synchronized long getSize() {
+        return probationSize + protectedSize + compactSize;
+    }
+
+    public synchronized long getHitCount() {
+        return hits + compactHits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + compactHits + misses;
+        return total == 0 ? 0 : (double)(hits + compactHits) / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ArticleCache: %d/%d bytes, %d hits (%d compact), %d misses",
+                getSize(), capacity, hits + compactHits, compactHits, misses);
+    }
+}
@@ -0,0 +1,143 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.util.Log;
+
+/**
+ * Reads articles that are likely to be opened next into the article cache,
+ * redirects resolved, on a low priority background thread. Articles are
+ * decompressed and redirect links looked up on that thread too, not on the
+ * library's lookup threads, so prefetching doesn't compete with lookups.
+ * Each {@link #prefetch} supersedes the previous one. Prefetching stops
+ * when cancelled or once the articles it read take up the memory budget.
+ */
+public final class ArticlePrefetcher {
+
+    private final static String TAG        = ArticlePrefetcher.class.getName();
+
+    /**
+     * Articles not in the cache are read this many at a time, so that
+     * nearby ones are read together while cancellation and the budget are
+     * still checked often.
+     */
+    private final static int    BATCH_SIZE = 4;
+
+    private final Library         library;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Prefetch");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
+    private volatile long         budget;
+    private LookupToken           token    = new LookupToken();
+
+    /**
+     * @param budget estimated number of bytes articles read by one
+     *               prefetch may take
+     */
+    public ArticlePrefetcher(Library library, long budget) {
+        this.library = library;
+        this.budget = budget;
+    }
+
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Starts reading articles of <code>entries</code>, in order, cancelling
+     * the previous prefetch.
+     */
+    public synchronized void prefetch(List<Entry> entries) {
+        token.cancel();
+        if (executor.isShutdown()) {
+            return;
+        }
+        final LookupToken t = new LookupToken();
+        final List<Entry> pending = new ArrayList<Entry>(entries);
+        token = t;
+        executor.execute(new Runnable() {
+            public void run() {
+                read(pending, t);
+            }
+        });
+    }
+
+    public synchronized void cancel() {
+        token.cancel();
+    }
+
+    public synchronized void shutdown() {
+        token.cancel();
+        executor.shutdownNow();
+    }
+
+    private void read(List<Entry> entries, LookupToken token) {
+        long size = 0;
+        int i = 0;
+        List<Entry> batch = new ArrayList<Entry>(BATCH_SIZE);
+        while (i < entries.size() && size < budget && !token.isCancelled()) {
+            batch.clear();
+            while (i < entries.size() && batch.size() < BATCH_SIZE) {
+                Entry e = entries.get(i++);
+                if (!ArticleCache.shared.contains(e.volumeId, e.articlePointer)) {
+                    batch.add(e);
+                }
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            List<Article> articles;
+            try {
+                articles = library.getArticles(batch, null);
+            }
+            catch (Exception e) {
+                Log.d(TAG, "Failed to prefetch articles", e);
+                continue;
+            }
+            for (Article a : articles) {
+                if (a == null) {
+                    continue;
+                }
+                size += ArticleCache.sizeOf(a);
+                if (a.isRedirect() && !token.isCancelled()) {
+                    try {
+                        size += ArticleCache.sizeOf(library.redirect(a, null));
+                    }
+                    catch (Exception e) {
+                        Log.d(TAG, "Failed to prefetch redirect of " + a.title, e);
+                    }
+                }
+            }
+        }
+        Log.d(TAG, "Prefetched " + size + " bytes of articles"
+                + (token.isCancelled() ? ", cancelled" : ""));
+    }
+}
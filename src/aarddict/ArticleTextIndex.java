@@ -0,0 +1,501 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+
+/**
+ * Inverted index of article text: each word maps to the index positions
+ * of titles whose article contains it. Words are normalized like titles
+ * in {@link TitleGramIndex}, markup is skipped.
+ * <p>
+ * Layout: magic, version, volume sha1sum, title count, word count,
+ * <code>wordCount + 1</code> word offsets, <code>wordCount + 1</code>
+ * postings offsets, sorted UTF-8 words and the postings, see
+ * {@link Postings}.
+ * <p>
+ * Reading every article takes long, so the index is built in segments of
+ * {@link #SEGMENT_SIZE} titles, each written to its own file when
+ * complete. A build that is stopped resumes after the last complete
+ * segment.
+ */
+final class ArticleTextIndex {
+
+    private final static String TAG = ArticleTextIndex.class.getName();
+
+    private final static int MAGIC         = 0x61747869;
+    private final static int SEGMENT_MAGIC = 0x61747873;
+    private final static int VERSION       = 1;
+    private final static int HEADER_SIZE   = 4 + 4 + 40 + 4 + 4;
+
+    final static int SEGMENT_SIZE = 1024;
+
+    final static int MIN_WORD_LENGTH = 2;
+    final static int MAX_WORD_LENGTH = 40;
+
+    private final VolumeFile file;
+    final int                count;
+    private final int        wordCount;
+    private final long       postingsOffsetsStart;
+    private final long       wordsStart;
+    private final long       postingsStart;
+
+    private ArticleTextIndex(VolumeFile file, int count, int wordCount) throws IOException {
+        this.file = file;
+        this.count = count;
+        this.wordCount = wordCount;
+        this.postingsOffsetsStart = HEADER_SIZE + 4L * (wordCount + 1);
+        this.wordsStart = postingsOffsetsStart + 4L * (wordCount + 1);
+        this.postingsStart = wordsStart + file.readUnsignedInt(HEADER_SIZE + 4L * wordCount);
+    }
+
+    /**
+     * Opens text index file for a volume, returns <code>null</code> if it
+     * was built for a different volume.
+     */
+    static ArticleTextIndex open(File f, String sha1sum, int count) throws IOException {
+        VolumeFile file = new MappedVolumeFile(f);
+        if (file.length() < HEADER_SIZE
+                || file.readInt(0) != MAGIC
+                || file.readInt(4) != VERSION
+                || !sha1sum.equals(file.readUTF8(8, 40))
+                || file.readInt(48) != count) {
+            file.close();
+            return null;
+        }
+        return new ArticleTextIndex(file, count, file.readInt(52));
+    }
+
+    private String word(int i) throws IOException {
+        long start = file.readUnsignedInt(HEADER_SIZE + 4L * i);
+        long end = file.readUnsignedInt(HEADER_SIZE + 4L * (i + 1));
+        return file.readUTF8(wordsStart + start, (int)(end - start));
+    }
+
+    /**
+     * Ascending index positions of titles whose article contains
+     * <code>word</code>, which must be normalized.
+     */
+    int[] postings(String word) throws IOException {
+        int lo = 0;
+        int hi = wordCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = word(mid).compareTo(word);
+            if (cmp < 0) {
+                lo = mid + 1;
+            }
+            else if (cmp > 0) {
+                hi = mid;
+            }
+            else {
+                long start = file.readUnsignedInt(postingsOffsetsStart + 4L * mid);
+                long end = file.readUnsignedInt(postingsOffsetsStart + 4L * (mid + 1));
+                byte[] data = file.readBytes(postingsStart + start, (int)(end - start));
+                return Postings.decode(data, 0, data.length);
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * Ascending index positions of titles whose article contains all
+     * words of <code>query</code>.
+     */
+    int[] search(String query, LookupToken token) throws IOException {
+        List<String> words = words(query);
+        if (words.isEmpty()) {
+            return new int[0];
+        }
+        int[][] lists = new int[words.size()][];
+        for (int i = 0; i < lists.length; i++) {
+            token.check();
+            lists[i] = postings(words.get(i));
+        }
+        Arrays.sort(lists, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a.length - b.length;
+            }
+        });
+        int[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            token.check();
+            result = intersect(result, lists[i]);
+        }
+        return result;
+    }
+
+    static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            }
+            else if (a[i] > b[j]) {
+                j++;
+            }
+            else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        int[] trimmed = new int[n];
+        System.arraycopy(result, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Distinct normalized words of <code>text</code>, skipping markup and
+     * character references.
+     */
+    static List<String> words(String text) {
+        StringBuilder plain = new StringBuilder(text.length());
+        boolean inTag = false;
+        boolean inReference = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (inTag) {
+                inTag = c != '>';
+            }
+            else if (inReference) {
+                inReference = c != ';' && !Character.isWhitespace(c);
+            }
+            else if (c == '<') {
+                inTag = true;
+                plain.append(' ');
+            }
+            else if (c == '&') {
+                inReference = true;
+                plain.append(' ');
+            }
+            else {
+                plain.append(c);
+            }
+        }
+        String normalized = TitleGramIndex.normalize(plain.toString());
+        Set<String> seen = new HashSet<String>();
+        List<String> result = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean letter = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letter && start == -1) {
+                start = i;
+            }
+            else if (!letter && start != -1) {
+                int length = i - start;
+                if (length >= MIN_WORD_LENGTH && length <= MAX_WORD_LENGTH) {
+                    String word = normalized.substring(start, i);
+                    if (seen.add(word)) {
+                        result.add(word);
+                    }
+                }
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    private static File segmentFile(File target, int segment) {
+        return new File(target.getParentFile(), target.getName() + "." + segment + ".seg");
+    }
+
+    private static boolean isSegmentValid(File f, String sha1sum, int start, int end) {
+        if (!f.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64));
+            try {
+                byte[] sha1 = new byte[40];
+                if (in.readInt() != SEGMENT_MAGIC) {
+                    return false;
+                }
+                in.readFully(sha1);
+                return sha1sum.equals(Volume.utf8(sha1)) && in.readInt() == start && in.readInt() == end;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Indexes articles of titles in <code>[start, end)</code> and writes a
+     * segment file: per word the number of titles and their positions.
+     * Redirects and articles already seen in this segment are skipped.
+     */
+    private static void buildSegment(Volume volume, File f, int start, int end, LookupToken token)
+            throws IOException {
+        final List<String> words = new ArrayList<String>();
+        Map<String, Integer> wordIds = new HashMap<String, Integer>();
+        Set<Long> pointers = new HashSet<Long>();
+        long[] pairs = new long[1 << 12];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            token.check();
+            Entry entry = volume.get(i);
+            if (!pointers.add(entry.articlePointer)) {
+                continue;
+            }
+            Article article = volume.decodeArticle(entry.articlePointer);
+            if (article.isRedirect() || article.text == null) {
+                continue;
+            }
+            for (String word : words(article.text)) {
+                Integer id = wordIds.get(word);
+                if (id == null) {
+                    id = words.size();
+                    wordIds.put(word, id);
+                    words.add(word);
+                }
+                if (n == pairs.length) {
+                    long[] grown = new long[pairs.length * 2];
+                    System.arraycopy(pairs, 0, grown, 0, n);
+                    pairs = grown;
+                }
+                pairs[n++] = ((long)id << 32) | i;
+            }
+        }
+        Integer[] order = new Integer[words.size()];
+        for (int w = 0; w < order.length; w++) {
+            order[w] = w;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return words.get(a).compareTo(words.get(b));
+            }
+        });
+        long[] rank = new long[order.length];
+        for (int r = 0; r < order.length; r++) {
+            rank[order[r]] = r;
+        }
+        for (int p = 0; p < n; p++) {
+            pairs[p] = (rank[(int)(pairs[p] >>> 32)] << 32) | (pairs[p] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(pairs, 0, n);
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(SEGMENT_MAGIC);
+            out.write(volume.getId().getBytes("UTF-8"));
+            out.writeInt(start);
+            out.writeInt(end);
+            out.writeInt(order.length);
+            int[] positions = new int[end - start];
+            for (int p = 0; p < n;) {
+                int r = (int)(pairs[p] >>> 32);
+                int count = 0;
+                while (p < n && (int)(pairs[p] >>> 32) == r) {
+                    positions[count++] = (int)pairs[p];
+                    p++;
+                }
+                out.writeUTF(words.get(order[r]));
+                out.writeInt(count);
+                Postings.write(out, 0, positions, 0, count);
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp);
+        }
+    }
+
+    private final static class Segment {
+
+        final DataInputStream in;
+        int                   remaining;
+        String                word;
+
+        Segment(File f) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+            in.readInt();
+            in.skipBytes(40 + 4 + 4);
+            remaining = in.readInt();
+            advance();
+        }
+
+        void advance() throws IOException {
+            word = remaining-- > 0 ? in.readUTF() : null;
+        }
+    }
+
+    /**
+     * Indexes articles of <code>volume</code> segment by segment, skipping
+     * segments built before, and merges the segments into
+     * <code>target</code>. Stops with CancellationException when
+     * <code>token</code> is cancelled, keeping the complete segments.
+     */
+    static void build(Volume volume, File target, LookupToken token) throws IOException {
+        long t0 = System.currentTimeMillis();
+        int count = volume.size();
+        int segmentCount = (count + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        String sha1sum = volume.getId();
+        int built = 0;
+        for (int s = 0; s < segmentCount; s++) {
+            int start = s * SEGMENT_SIZE;
+            int end = Math.min(count, start + SEGMENT_SIZE);
+            File f = segmentFile(target, s);
+            if (!isSegmentValid(f, sha1sum, start, end)) {
+                buildSegment(volume, f, start, end, token);
+                built++;
+            }
+        }
+        merge(volume, target, segmentCount);
+        for (int s = 0; s < segmentCount; s++) {
+            segmentFile(target, s).delete();
+        }
+        Log.d(TAG, String.format("Built text index for %s (%d of %d segments) in %d",
+                sha1sum, built, segmentCount, System.currentTimeMillis() - t0));
+    }
+
+    private static void merge(Volume volume, File target, int segmentCount) throws IOException {
+        File dir = target.getParentFile();
+        String prefix = target.getName() + ".";
+        File wordOffsetsFile = new File(dir, prefix + "wordoffsets.tmp");
+        File postingsOffsetsFile = new File(dir, prefix + "offsets.tmp");
+        File wordsFile = new File(dir, prefix + "words.tmp");
+        File postingsFile = new File(dir, prefix + "postings.tmp");
+        Segment[] segments = new Segment[segmentCount];
+        int wordCount = 0;
+        try {
+            DataOutputStream wordOffsets = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(wordOffsetsFile)));
+            DataOutputStream postingsOffsets = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(postingsOffsetsFile)));
+            Postings.CountingOutputStream words = new Postings.CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(wordsFile), 1 << 16));
+            Postings.CountingOutputStream postings = new Postings.CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(postingsFile), 1 << 16));
+            try {
+                for (int s = 0; s < segmentCount; s++) {
+                    segments[s] = new Segment(segmentFile(target, s));
+                }
+                while (true) {
+                    String word = null;
+                    for (Segment segment : segments) {
+                        if (segment.word != null && (word == null || segment.word.compareTo(word) < 0)) {
+                            word = segment.word;
+                        }
+                    }
+                    if (word == null) {
+                        break;
+                    }
+                    if (postings.count > 0xFFFFFFFFL || words.count > 0xFFFFFFFFL) {
+                        throw new IOException("Text index is too large");
+                    }
+                    wordOffsets.writeInt((int)words.count);
+                    postingsOffsets.writeInt((int)postings.count);
+                    words.write(word.getBytes("UTF-8"));
+                    wordCount++;
+                    int previous = 0;
+                    for (Segment segment : segments) {
+                        if (!word.equals(segment.word)) {
+                            continue;
+                        }
+                        int n = segment.in.readInt();
+                        int value = 0;
+                        for (int i = 0; i < n; i++) {
+                            value += Postings.readVarint(segment.in);
+                            Postings.writeVarint(postings, value - previous);
+                            previous = value;
+                        }
+                        segment.advance();
+                    }
+                }
+                wordOffsets.writeInt((int)words.count);
+                postingsOffsets.writeInt((int)postings.count);
+            }
+            finally {
+                wordOffsets.close();
+                postingsOffsets.close();
+                words.close();
+                postings.close();
+                for (Segment segment : segments) {
+                    if (segment != null) {
+                        segment.in.close();
+                    }
+                }
+            }
+            File tmp = new File(dir, prefix + "tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(volume.getId().getBytes("UTF-8"));
+                out.writeInt(volume.size());
+                out.writeInt(wordCount);
+                byte[] buf = new byte[1 << 16];
+                for (File f : new File[] {wordOffsetsFile, postingsOffsetsFile, wordsFile, postingsFile}) {
+                    InputStream in = new FileInputStream(f);
+                    try {
+                        int n;
+                        while ((n = in.read(buf)) != -1) {
+                            out.write(buf, 0, n);
+                        }
+                    }
+                    finally {
+                        in.close();
+                    }
+                }
+            }
+            finally {
+                out.close();
+            }
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Failed to rename " + tmp);
+            }
+        }
+        finally {
+            wordOffsetsFile.delete();
+            postingsOffsetsFile.delete();
+            wordsFile.delete();
+            postingsFile.delete();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of fixed size file blocks shared by all open volumes. Blocks
+ * are keyed by file id and block number and the total size of cached
+ * blocks is kept under one byte budget. The cache is split into segments
+ * with their own locks so that concurrent lookups in different parts of
+ * the index don't contend.
+ */
+public final class BlockCache {
+
+    final static int  BLOCK_BITS = 13;
+    final static int  BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    private final static int SEGMENT_COUNT = 16;
+
+    final static BlockCache shared = new BlockCache(4 << 20);
+
+    private final Segment[]     segments = new Segment[SEGMENT_COUNT];
+    private final AtomicLong    hits     = new AtomicLong();
+    private final AtomicLong    misses   = new AtomicLong();
+    private final AtomicInteger fileIds  = new AtomicInteger();
+
+    private final static class Segment extends LinkedHashMap<Long, byte[]> {
+
+        private final static long serialVersionUID = 1L;
+
+        long capacity;
+        long size;
+
+        Segment(long capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        synchronized byte[] getBlock(long key) {
+            return get(key);
+        }
+
+        synchronized void putBlock(long key, byte[] block) {
+            byte[] old = put(key, block);
+            if (old != null) {
+                size -= old.length;
+            }
+            size += block.length;
+            trim();
+        }
+
+        synchronized void setCapacity(long capacity) {
+            this.capacity = capacity;
+            trim();
+        }
+
+        synchronized void removeFile(int fileId) {
+            Iterator<java.util.Map.Entry<Long, byte[]>> i = entrySet().iterator();
+            while (i.hasNext()) {
+                java.util.Map.Entry<Long, byte[]> e = i.next();
+                if ((int)(e.getKey() >>> 40) == fileId) {
+                    size -= e.getValue().length;
+                    i.remove();
+                }
+            }
+        }
+
+        private void trim() {
+            Iterator<byte[]> i = values().iterator();
+            while (size > capacity && i.hasNext()) {
+                size -= i.next().length;
+                i.remove();
+            }
+        }
+    }
+
+    BlockCache(long capacity) {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(capacity / SEGMENT_COUNT);
+        }
+    }
+
+    int newFileId() {
+        return fileIds.incrementAndGet();
+    }
+
+    private static long key(int fileId, long block) {
+        return ((long)fileId << 40) | block;
+    }
+
+    private Segment segment(long block) {
+        return segments[(int)(block & (SEGMENT_COUNT - 1))];
+    }
+
+    byte[] get(int fileId, long block) {
+        byte[] result = segment(block).getBlock(key(fileId, block));
+        if (result == null) {
+            misses.incrementAndGet();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    void put(int fileId, long block, byte[] data) {
+        segment(block).putBlock(key(fileId, block), data);
+    }
+
+    void removeFile(int fileId) {
+        for (Segment s : segments) {
+            s.removeFile(fileId);
+        }
+    }
+
+    /**
+     * Sets the total number of bytes the cache may hold, evicting least
+     * recently used blocks if it is over the new budget. Zero disables
+     * caching.
+     */
+    public void setCapacity(long capacity) {
+        for (Segment s : segments) {
+            s.setCapacity(capacity / SEGMENT_COUNT);
+        }
+    }
+
+    public long getCapacity() {
+        long result = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                result += s.capacity;
+            }
+        }
+        return result;
+    }
+
+    public long getSize() {
+        long result = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                result += s.size;
+            }
+        }
+        return result;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BlockCache: %d/%d bytes, %d hits, %d misses",
+                getSize(), getCapacity(), getHitCount(), getMissCount());
+    }
+}
@@ -0,0 +1,47 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+final class Bz2Codec extends Codec {
+
+    @Override
+    public String getName() {
+        return "bz2";
+    }
+
+    @Override
+    public boolean matches(byte[] data, int offset, int length) {
+        return length >= 3 && data[offset] == 'B' && data[offset + 1] == 'Z'
+                && data[offset + 2] == 'h';
+    }
+
+    @Override
+    protected void decode(byte[] data, int offset, int length, Buffer out) throws IOException {
+        BZip2CompressorInputStream in = new BZip2CompressorInputStream(
+                new ByteArrayInputStream(data, offset, length));
+        try {
+            out.readFully(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.IOException;
+
+/**
+ * Reads another volume file through a {@link BlockCache}. Closing it drops
+ * its blocks from the cache but leaves the underlying file open.
+ */
+final class CachedVolumeFile extends VolumeFile {
+
+    private final VolumeFile delegate;
+    private final BlockCache cache;
+    private final int        fileId;
+
+    CachedVolumeFile(VolumeFile delegate, BlockCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.fileId = cache.newFileId();
+    }
+
+    @Override
+    long length() {
+        return delegate.length();
+    }
+
+    private byte[] block(long block) throws IOException {
+        byte[] data = cache.get(fileId, block);
+        if (data == null) {
+            long start = block << BlockCache.BLOCK_BITS;
+            int size = (int)Math.min(BlockCache.BLOCK_SIZE, delegate.length() - start);
+            data = delegate.readBytes(start, size);
+            cache.put(fileId, block, data);
+        }
+        return data;
+    }
+
+    @Override
+    void read(long position, byte[] dst, int offset, int length) throws IOException {
+        checkBounds(position, length);
+        while (length > 0) {
+            byte[] data = block(position >>> BlockCache.BLOCK_BITS);
+            int blockOffset = (int)(position & (BlockCache.BLOCK_SIZE - 1));
+            int count = Math.min(length, data.length - blockOffset);
+            System.arraycopy(data, blockOffset, dst, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Numbers are decoded straight from the cached block unless they
+     * straddle two blocks.
+     */
+    @Override
+    int readUnsignedShort(long position) throws IOException {
+        int blockOffset = (int)(position & (BlockCache.BLOCK_SIZE - 1));
+        if (blockOffset > BlockCache.BLOCK_SIZE - 2) {
+            return super.readUnsignedShort(position);
+        }
+        checkBounds(position, 2);
+        byte[] b = block(position >>> BlockCache.BLOCK_BITS);
+        return ((b[blockOffset] & 0xff) << 8) | (b[blockOffset + 1] & 0xff);
+    }
+
+    @Override
+    int readInt(long position) throws IOException {
+        int blockOffset = (int)(position & (BlockCache.BLOCK_SIZE - 1));
+        if (blockOffset > BlockCache.BLOCK_SIZE - 4) {
+            return super.readInt(position);
+        }
+        checkBounds(position, 4);
+        byte[] b = block(position >>> BlockCache.BLOCK_BITS);
+        return ((b[blockOffset] & 0xff) << 24) | ((b[blockOffset + 1] & 0xff) << 16)
+                | ((b[blockOffset + 2] & 0xff) << 8) | (b[blockOffset + 3] & 0xff);
+    }
+
+    @Override
+    long readLong(long position) throws IOException {
+        int blockOffset = (int)(position & (BlockCache.BLOCK_SIZE - 1));
+        if (blockOffset > BlockCache.BLOCK_SIZE - 8) {
+            return super.readLong(position);
+        }
+        checkBounds(position, 8);
+        byte[] b = block(position >>> BlockCache.BLOCK_BITS);
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (b[blockOffset + i] & 0xff);
+        }
+        return result;
+    }
+
+    @Override
+    void close() throws IOException {
+        cache.removeFile(fileId);
+    }
+}
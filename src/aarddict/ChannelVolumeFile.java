@@ -0,0 +1,63 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Volume file read with positional channel reads. The channel position is
+ * never changed, so any number of threads may read concurrently.
+ */
+class ChannelVolumeFile extends VolumeFile {
+
+    private final RandomAccessFile file;
+    final FileChannel              channel;
+    private final long             length;
+
+    ChannelVolumeFile(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.length = channel.size();
+    }
+
+    @Override
+    long length() {
+        return length;
+    }
+
+    @Override
+    void read(long position, byte[] dst, int offset, int length) throws IOException {
+        checkBounds(position, length);
+        ByteBuffer buffer = ByteBuffer.wrap(dst, offset, length);
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            position += count;
+        }
+    }
+
+    @Override
+    void close() throws IOException {
+        file.close();
+    }
+}
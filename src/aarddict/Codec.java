@@ -0,0 +1,99 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoder for one compression format of article and metadata data. Codecs
+ * are registered in {@link Codecs}, the first one that recognizes the
+ * leading bytes of the data decodes it. Implementations must be safe for
+ * concurrent use.
+ */
+public abstract class Codec {
+
+    /**
+     * Growable output buffer a codec decodes into.
+     */
+    public static final class Buffer {
+
+        public byte[] data;
+        public int    length;
+
+        Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        public void ensureCapacity(int capacity) {
+            if (data.length < capacity) {
+                byte[] newData = new byte[Math.max(capacity, data.length * 2)];
+                System.arraycopy(data, 0, newData, 0, length);
+                data = newData;
+            }
+        }
+
+        public void readFully(InputStream in) throws IOException {
+            while (true) {
+                if (length == data.length) {
+                    ensureCapacity(length + 1);
+                }
+                int count = in.read(data, length, data.length - length);
+                if (count == -1) {
+                    break;
+                }
+                length += count;
+            }
+        }
+    }
+
+    private final AtomicLong decodeCount = new AtomicLong();
+    private final AtomicLong decodeTime  = new AtomicLong();
+
+    public abstract String getName();
+
+    public abstract boolean matches(byte[] data, int offset, int length);
+
+    protected abstract void decode(byte[] data, int offset, int length, Buffer out) throws IOException;
+
+    final void decodeTimed(byte[] data, int offset, int length, Buffer out) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            decode(data, offset, length, out);
+        }
+        finally {
+            decodeTime.addAndGet(System.nanoTime() - t0);
+            decodeCount.incrementAndGet();
+        }
+    }
+
+    public long getDecodeCount() {
+        return decodeCount.get();
+    }
+
+    /**
+     * Total time spent decoding with this codec, in milliseconds.
+     */
+    public long getDecodeTime() {
+        return decodeTime.get() / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d decoded in %d ms", getName(), getDecodeCount(), getDecodeTime());
+    }
+}
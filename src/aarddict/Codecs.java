@@ -0,0 +1,64 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registered codecs, zlib, bz2 and lz4 built in. Zstandard is not
+ * supported: no zstd decoder is bundled, so volumes compressed with it
+ * can't be read unless a codec for it is registered with
+ * {@link #register}.
+ */
+public final class Codecs {
+
+    public final static Codec ZLIB = new ZlibCodec();
+    public final static Codec BZ2  = new Bz2Codec();
+    public final static Codec LZ4  = new Lz4Codec();
+
+    private final static List<Codec> registered = new CopyOnWriteArrayList<Codec>(
+            new Codec[] { ZLIB, BZ2, LZ4 });
+
+    private Codecs() {
+    }
+
+    /**
+     * Registers a codec ahead of the ones already registered.
+     */
+    public static void register(Codec codec) {
+        registered.add(0, codec);
+    }
+
+    public static List<Codec> getAll() {
+        return Collections.unmodifiableList(registered);
+    }
+
+    /**
+     * Codec for data starting with the given bytes, or <code>null</code>
+     * if no codec recognizes it and the data should be treated as
+     * uncompressed.
+     */
+    static Codec detect(byte[] data, int offset, int length) {
+        for (Codec codec : registered) {
+            if (codec.matches(data, offset, length)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
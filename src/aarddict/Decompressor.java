@@ -0,0 +1,118 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Decompresses article and metadata bytes with the {@link Codec} that
+ * recognizes their leading bytes. Input and output buffers are kept per
+ * thread and reused.
+ */
+final class Decompressor {
+
+    /**
+     * Buffers that grew beyond this size while decoding an unusually large
+     * article are not kept around.
+     */
+    private final static int MAX_RETAINED_BUFFER = 1 << 20;
+
+    private final static class BufferPool extends ThreadLocal<Codec.Buffer> {
+
+        @Override
+        protected Codec.Buffer initialValue() {
+            return new Codec.Buffer(1 << 14);
+        }
+
+        Codec.Buffer get(int capacity) {
+            Codec.Buffer b = get();
+            b.length = 0;
+            b.ensureCapacity(capacity);
+            return b;
+        }
+
+        void release(Codec.Buffer b) {
+            if (b.data.length > MAX_RETAINED_BUFFER) {
+                set(new Codec.Buffer(1 << 14));
+            }
+        }
+    }
+
+    private final static BufferPool inputBuffers  = new BufferPool();
+    private final static BufferPool outputBuffers = new BufferPool();
+
+    /**
+     * Thread local buffer for compressed input of at least
+     * <code>capacity</code> bytes.
+     */
+    static Codec.Buffer inputBuffer(int capacity) {
+        return inputBuffers.get(capacity);
+    }
+
+    static void releaseInputBuffer(Codec.Buffer b) {
+        inputBuffers.release(b);
+    }
+
+    static String decompress(byte[] data) throws IOException {
+        return decompress(data, 0, data.length);
+    }
+
+    static String decompress(byte[] data, int offset, int length) throws IOException {
+        Codec codec = Codecs.detect(data, offset, length);
+        if (codec == null) {
+            return utf8(data, offset, length);
+        }
+        Codec.Buffer out = outputBuffers.get(length * 4);
+        try {
+            codec.decodeTimed(data, offset, length, out);
+            return utf8(out.data, 0, out.length);
+        }
+        finally {
+            outputBuffers.release(out);
+        }
+    }
+
+    /**
+     * Decompresses a serialized article and parses it straight from the
+     * output buffer, without making a string of it first.
+     */
+    static Article decompressArticle(byte[] data, int offset, int length, boolean redirectOnly)
+            throws IOException {
+        Codec codec = Codecs.detect(data, offset, length);
+        if (codec == null) {
+            return Article.fromJson(data, offset, length, redirectOnly);
+        }
+        Codec.Buffer out = outputBuffers.get(length * 4);
+        try {
+            codec.decodeTimed(data, offset, length, out);
+            return Article.fromJson(out.data, 0, out.length, redirectOnly);
+        }
+        finally {
+            outputBuffers.release(out);
+        }
+    }
+
+    static String utf8(byte[] data, int offset, int length) {
+        try {
+            return new String(data, offset, length, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            e.printStackTrace();
+            return "";
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Decoded entries of one volume keyed by index position. Entries at the
+ * top levels of a full range binary search are pinned: until the volume's
+ * {@link KeySample} is loaded every lookup passes through them, and they
+ * are also where a lookup starts in a volume without one. Other entries go
+ * to a direct mapped table indexed by the low bits of the position, so a
+ * contiguous range of results stays in the cache without collisions until
+ * newer reads replace it.
+ * <p>
+ * Slots are replaced atomically and reads take no lock, so concurrent
+ * lookups in the same volume don't contend.
+ */
+public final class EntryCache {
+
+    final static int TREE_DEPTH  = 10;
+    final static int RECENT_SIZE = 4096;
+
+    /**
+     * Entry and the index position it was read from, replaced together.
+     */
+    private final static class Slot {
+
+        final int   index;
+        final Entry entry;
+
+        Slot(int index, Entry entry) {
+            this.index = index;
+            this.entry = entry;
+        }
+    }
+
+    private final int[]                       treeIndexes;
+    private final AtomicReferenceArray<Entry> treeEntries;
+    private final AtomicReferenceArray<Slot>  slots;
+    private final int                         mask;
+
+    private final AtomicInteger               size   = new AtomicInteger();
+    private final AtomicLong                  hits   = new AtomicLong();
+    private final AtomicLong                  misses = new AtomicLong();
+
+    /**
+     * @param count number of entries in the volume, a smaller volume gets
+     *              a smaller table
+     */
+    EntryCache(int count) {
+        this(count, TREE_DEPTH, RECENT_SIZE);
+    }
+
+    EntryCache(int count, int treeDepth, int recentSize) {
+        int[] tree = new int[(1 << treeDepth) - 1];
+        int treeSize = collectTree(0, count, treeDepth, tree, 0);
+        treeIndexes = new int[treeSize];
+        System.arraycopy(tree, 0, treeIndexes, 0, treeSize);
+        Arrays.sort(treeIndexes);
+        treeEntries = new AtomicReferenceArray<Entry>(treeSize);
+        int capacity = 1;
+        while (capacity < count - treeSize && capacity < recentSize) {
+            capacity <<= 1;
+        }
+        slots = new AtomicReferenceArray<Slot>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Collects midpoints Volume.binarySearch visits in the first
+     * <code>depth</code> steps over <code>[lo, hi)</code>.
+     */
+    private static int collectTree(int lo, int hi, int depth, int[] result, int count) {
+        if (depth == 0 || lo >= hi) {
+            return count;
+        }
+        int mid = (lo + hi) >>> 1;
+        result[count++] = mid;
+        count = collectTree(lo, mid, depth - 1, result, count);
+        return collectTree(mid + 1, hi, depth - 1, result, count);
+    }
+
+    Entry get(int index) {
+        int treeSlot = Arrays.binarySearch(treeIndexes, index);
+        if (treeSlot >= 0) {
+            Entry entry = treeEntries.get(treeSlot);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        Slot slot = slots.get(index & mask);
+        if (slot != null && slot.index == index) {
+            hits.incrementAndGet();
+            return slot.entry;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(int index, Entry entry) {
+        int treeSlot = Arrays.binarySearch(treeIndexes, index);
+        if (treeSlot >= 0) {
+            if (treeEntries.getAndSet(treeSlot, entry) == null) {
+                size.incrementAndGet();
+            }
+            return;
+        }
+        if (slots.getAndSet(index & mask, new Slot(index, entry)) == null) {
+            size.incrementAndGet();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EntryCache: %d entries, %d hits, %d misses", size(),
+                getHitCount(), getMissCount());
+    }
+}
@@ -24,18 +24,37 @@ public class EntryComparator implements Comparator<Entry> {
 
     final static Locale ROOT_LOCALE = new Locale("", "", "");
 
-    Collator collator;
+    private final Collator prototype;
+
+    /*
+     * ICU collators keep iteration state and are not safe for concurrent
+     * use, each thread compares with its own clone.
+     */
+    private final ThreadLocal<Collator> collators = new ThreadLocal<Collator>() {
+        @Override
+        protected Collator initialValue() {
+            return cloneCollator(prototype);
+        }
+    };
 
     EntryComparator(int strength) {
+        prototype = cloneCollator(Collator.getInstance(ROOT_LOCALE));
+        prototype.setStrength(strength);
+    }
+
+    private static Collator cloneCollator(Collator collator) {
         try {
-            collator = (Collator)Collator.getInstance(ROOT_LOCALE).clone();
+            return (Collator)collator.clone();
         } catch (CloneNotSupportedException e) {
             throw new RuntimeException(e);
         }
-        collator.setStrength(strength);
+    }
+
+    final Collator collator() {
+        return collators.get();
     }
 
     public int compare(Entry e1, Entry e2) {
-        return collator.compare(e1.title, e2.title);
+        return collator().compare(e1.title, e2.title);
     }
 }
\ No newline at end of file
@@ -26,7 +26,7 @@ public final class EntryStartComparator extends EntryComparator {
         String k2 = e2.title;
         String k1 = k2.length() < e1.title.length() ? e1.title.substring(0,
                 k2.length()) : e1.title;
-        int result = collator.compare(k1, k2);
+        int result = collator().compare(k1, k2);
         return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Titles within a small edit distance of a lookup word, used when
+ * nothing matches exactly or by prefix. Candidates come from the trigram
+ * index: a title within edit distance <i>k</i> shares all but at most
+ * <i>3k</i> of the word's trigrams. Only candidates are read from the
+ * index and checked with a {@link LevenshteinAutomaton}. Volumes without
+ * a trigram index yet are skipped rather than scanned.
+ * <p>
+ * Gathering candidates decodes and sorts the postings of the word's
+ * trigrams, so trigrams with postings larger than
+ * {@link #maxPostingsSize} are left out and count as shared by every
+ * title, and the time limit is checked before each one is read.
+ */
+final class FuzzyMatches {
+
+    private final static String TAG = FuzzyMatches.class.getName();
+
+    /**
+     * Time in milliseconds after which the search stops and returns
+     * what it has found.
+     */
+    static long timeLimit = 300;
+
+    /**
+     * Maximum number of candidates checked per volume, those sharing the
+     * most trigrams with the word.
+     */
+    static int maxCandidates = 2000;
+
+    /**
+     * Size in bytes above which postings of a trigram are not read.
+     */
+    static int maxPostingsSize = 1 << 15;
+
+    private final static class Match implements Comparable<Match> {
+
+        final int   distance;
+        final int   volume;
+        final int   index;
+        final Entry entry;
+
+        Match(int distance, int volume, int index, Entry entry) {
+            this.distance = distance;
+            this.volume = volume;
+            this.index = index;
+            this.entry = entry;
+        }
+
+        public int compareTo(Match other) {
+            if (distance != other.distance) {
+                return distance - other.distance;
+            }
+            if (volume != other.volume) {
+                return volume - other.volume;
+            }
+            return index < other.index ? -1 : (index == other.index ? 0 : 1);
+        }
+    }
+
+    /**
+     * Whether the search stopped at the time limit, left out so many
+     * common trigrams that candidates could be missed or left candidates
+     * past {@link #maxCandidates} unchecked.
+     */
+    boolean truncated;
+
+    final List<Entry> entries = new ArrayList<Entry>();
+
+    FuzzyMatches(List<Volume> volumes, LookupWord word, LookupToken token) {
+        String query = word.word == null ? "" : TitleGramIndex.normalize(word.word);
+        int max = LevenshteinAutomaton.maxDistance(query.length());
+        if (max == 0) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + timeLimit;
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(query, max);
+        long[] grams = TitleGramIndex.grams(query, true);
+        int minCount = Math.max(1, grams.length - 3 * max);
+        List<Match> matches = new ArrayList<Match>();
+        search:
+        for (int v = 0; v < volumes.size(); v++) {
+            Volume volume = volumes.get(v);
+            TitleGramIndex index = volume.titleGrams;
+            if (index == null) {
+                continue;
+            }
+            int[] candidates;
+            try {
+                long[] selected = new long[grams.length];
+                int count = 0;
+                for (long gram : grams) {
+                    token.check();
+                    if (System.currentTimeMillis() > deadline) {
+                        truncated = true;
+                        break search;
+                    }
+                    if (index.postingsSize(gram) <= maxPostingsSize) {
+                        selected[count++] = gram;
+                    }
+                }
+                int required = minCount - (grams.length - count);
+                if (required <= 0) {
+                    // any title could be within the distance, candidates
+                    // sharing none of the remaining trigrams are missed
+                    truncated = true;
+                    required = 1;
+                }
+                if (count == 0) {
+                    continue;
+                }
+                if (count < grams.length) {
+                    long[] trimmed = new long[count];
+                    System.arraycopy(selected, 0, trimmed, 0, count);
+                    selected = trimmed;
+                }
+                candidates = index.rankedCandidates(selected, required, token);
+            }
+            catch (IOException e) {
+                Log.e(TAG, "Failed to read trigrams of " + volume.getId(), e);
+                continue;
+            }
+            int n = Math.min(candidates.length, maxCandidates);
+            if (n < candidates.length) {
+                truncated = true;
+            }
+            for (int i = 0; i < n; i++) {
+                token.check();
+                if (System.currentTimeMillis() > deadline) {
+                    truncated = true;
+                    break search;
+                }
+                Entry entry = volume.get(candidates[i]);
+                int distance = automaton.distance(TitleGramIndex.normalize(entry.title));
+                if (distance <= max) {
+                    Entry match = new Entry(entry.volumeId, entry.title, entry.articlePointer);
+                    match.section = word.section;
+                    matches.add(new Match(distance, v, candidates[i], match));
+                }
+            }
+        }
+        Collections.sort(matches);
+        for (Match m : matches) {
+            entries.add(m.entry);
+        }
+    }
+}
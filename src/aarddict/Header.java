@@ -34,6 +34,7 @@ public final class Header {
     public final String index1ItemFormat;
     public final String keyLengthFormat;
     public final String articleLengthFormat;
+    public final long   metaOffset;
     public final long   index1Offset;
     public final long   index2Offset;
     public final int    index1ItemSize;
@@ -41,53 +42,61 @@ public final class Header {
     public final char   articlePointerSpec;
     public final char   keyLengthSpec;
     public final char   articleLengthSpec;
+    public final int    keyPointerSize;
+    public final int    keyLengthSize;
+    public final int    articleLengthSize;
 
-    Header(RandomAccessFile file) throws IOException {
+    Header(VolumeFile file) throws IOException {
         int specLen = 0;
-        this.signature = file.readUTF8(4);
+        this.signature = file.readUTF8(specLen, 4);
         specLen += 4;
 
-        this.sha1sum = file.readUTF8(40);
+        this.sha1sum = file.readUTF8(specLen, 40);
         specLen += 40;
 
-        this.version = file.readUnsignedShort();
+        this.version = file.readUnsignedShort(specLen);
         specLen += 2;
 
-        this.uuid = file.readUUID();
+        this.uuid = file.readUUID(specLen);
         specLen += 16;
 
-        this.volume = file.readUnsignedShort();
+        this.volume = file.readUnsignedShort(specLen);
         specLen += 2;
 
-        this.of = file.readUnsignedShort();
+        this.of = file.readUnsignedShort(specLen);
         specLen += 2;
 
-        this.metaLength = file.readUnsignedInt();
+        this.metaLength = file.readUnsignedInt(specLen);
         specLen += 4;
 
-        this.indexCount = file.readUnsignedInt();
+        this.indexCount = file.readUnsignedInt(specLen);
         specLen += 4;
 
-        this.articleOffset = file.readUnsignedInt();
+        this.articleOffset = file.readUnsignedInt(specLen);
         specLen += 4;
 
-        this.index1ItemFormat = file.readUTF8(4);
+        this.index1ItemFormat = file.readUTF8(specLen, 4);
         specLen += 4;
 
-        this.keyLengthFormat = file.readUTF8(2);
+        this.keyLengthFormat = file.readUTF8(specLen, 2);
         specLen += 2;
         this.keyLengthSpec = this.keyLengthFormat.charAt(1);
 
-        this.articleLengthFormat = file.readUTF8(2);
+        this.articleLengthFormat = file.readUTF8(specLen, 2);
         specLen += 2;
         this.articleLengthSpec = this.articleLengthFormat.charAt(1);
 
         this.index1ItemSize = calcSize(this.index1ItemFormat);
 
+        this.metaOffset = specLen;
         this.index1Offset = specLen + this.metaLength;
         this.index2Offset = this.index1Offset + this.indexCount*this.index1ItemSize;
         this.keyPointerSpec = this.index1ItemFormat.charAt(1);
         this.articlePointerSpec = this.index1ItemFormat.charAt(2);
+
+        this.keyPointerSize = specSize(this.keyPointerSpec);
+        this.keyLengthSize = specSize(this.keyLengthSpec);
+        this.articleLengthSize = specSize(this.articleLengthSpec);
     }
 
     static Map<Character, Integer> structSizes = new HashMap<Character, Integer>() {
@@ -103,6 +112,14 @@ public final class Header {
                                                    }
                                                };
 
+    static int specSize(char spec) throws IOException {
+        Integer size = structSizes.get(spec);
+        if (size == null) {
+            throw new IOException("Unsupported spec character " + spec);
+        }
+        return size;
+    }
+
     static int calcSize(String structSpec) {
         int size = 0;
         int length = structSpec.length();
@@ -15,7 +15,16 @@
 
 package aarddict;
 
-final class IndexItem {
-    long keyPointer;
-    long articlePointer;
-}
\ No newline at end of file
+import java.util.Iterator;
+
+/**
+ * Iterator over entries of one volume that also tells where in the
+ * volume's index the next entry is.
+ */
+interface IndexIterator extends Iterator<Entry> {
+
+    /**
+     * Index position of the entry <code>next()</code> returns.
+     */
+    int nextIndex();
+}
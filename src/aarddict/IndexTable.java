@@ -0,0 +1,238 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.util.Log;
+
+/**
+ * Key and article pointers of index1. Pointers are either read from the
+ * volume file on every call or loaded once into packed arrays on the heap
+ * or into a direct buffer, depending on the size of the index and on the
+ * memory available.
+ */
+abstract class IndexTable {
+
+    private final static String TAG = IndexTable.class.getName();
+
+    /**
+     * Direct buffers are only used for indexes up to this size, larger
+     * indexes stay on disk.
+     */
+    final static long MAX_DIRECT_SIZE = 64 << 20;
+
+    private final static int LOAD_CHUNK_ITEMS = 8192;
+
+    abstract long keyPointer(int i) throws IOException;
+
+    abstract long articlePointer(int i) throws IOException;
+
+    static final class FileIndexTable extends IndexTable {
+
+        private final VolumeFile file;
+        private final Header     h;
+
+        FileIndexTable(VolumeFile file, Header header) {
+            this.file = file;
+            this.h = header;
+        }
+
+        @Override
+        long keyPointer(int i) throws IOException {
+            return file.readSpec(h.index1Offset + (long)i * h.index1ItemSize, h.keyPointerSpec);
+        }
+
+        @Override
+        long articlePointer(int i) throws IOException {
+            return file.readSpec(h.index1Offset + (long)i * h.index1ItemSize + h.keyPointerSize,
+                    h.articlePointerSpec);
+        }
+    }
+
+    /**
+     * Pointers of up to 32 bits, each column read back as signed or
+     * unsigned as its own spec says.
+     */
+    static final class IntIndexTable extends IndexTable {
+
+        private final int[]   keyPointers;
+        private final int[]   articlePointers;
+        private final boolean keyUnsigned;
+        private final boolean articleUnsigned;
+
+        IntIndexTable(int count, boolean keyUnsigned, boolean articleUnsigned) {
+            this.keyPointers = new int[count];
+            this.articlePointers = new int[count];
+            this.keyUnsigned = keyUnsigned;
+            this.articleUnsigned = articleUnsigned;
+        }
+
+        @Override
+        long keyPointer(int i) {
+            return keyUnsigned ? keyPointers[i] & 0xFFFFFFFFL : keyPointers[i];
+        }
+
+        @Override
+        long articlePointer(int i) {
+            return articleUnsigned ? articlePointers[i] & 0xFFFFFFFFL : articlePointers[i];
+        }
+    }
+
+    static final class LongIndexTable extends IndexTable {
+
+        private final long[] keyPointers;
+        private final long[] articlePointers;
+
+        LongIndexTable(int count) {
+            this.keyPointers = new long[count];
+            this.articlePointers = new long[count];
+        }
+
+        @Override
+        long keyPointer(int i) {
+            return keyPointers[i];
+        }
+
+        @Override
+        long articlePointer(int i) {
+            return articlePointers[i];
+        }
+    }
+
+    static final class DirectIndexTable extends IndexTable {
+
+        private final ByteBuffer buffer;
+        private final Header     h;
+
+        DirectIndexTable(ByteBuffer buffer, Header header) {
+            this.buffer = buffer;
+            this.h = header;
+        }
+
+        private long get(int position, char spec) {
+            switch (spec) {
+            case 'L':
+            case 'I':
+                return buffer.getInt(position) & 0xFFFFFFFFL;
+            case 'l':
+            case 'i':
+                return buffer.getInt(position);
+            case 'H':
+                return buffer.getShort(position) & 0xffff;
+            case 'h':
+                return buffer.getShort(position);
+            default:
+                return buffer.getLong(position);
+            }
+        }
+
+        @Override
+        long keyPointer(int i) {
+            return get(i * h.index1ItemSize, h.keyPointerSpec);
+        }
+
+        @Override
+        long articlePointer(int i) {
+            return get(i * h.index1ItemSize + h.keyPointerSize, h.articlePointerSpec);
+        }
+    }
+
+    private static boolean fitsInt(char spec) {
+        return spec != 'Q' && spec != 'q';
+    }
+
+    private static boolean isUnsigned(char spec) {
+        return Character.isUpperCase(spec);
+    }
+
+    /**
+     * Size in bytes a heap copy of the index would take.
+     */
+    static long packedSize(Header h) {
+        boolean ints = fitsInt(h.keyPointerSpec) && fitsInt(h.articlePointerSpec);
+        return h.indexCount * (ints ? 8 : 16);
+    }
+
+    /**
+     * Loads index1 into memory if it fits, otherwise returns a table that
+     * reads from <code>file</code>.
+     */
+    static IndexTable load(VolumeFile file, Header h) throws IOException {
+        long t0 = System.currentTimeMillis();
+        Runtime rt = Runtime.getRuntime();
+        long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        long packedSize = packedSize(h);
+        long rawSize = h.indexCount * h.index1ItemSize;
+        IndexTable result;
+        if (packedSize <= available / 4) {
+            result = loadPacked(file, h);
+        }
+        else if (rawSize <= MAX_DIRECT_SIZE) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int)rawSize);
+            byte[] chunk = new byte[LOAD_CHUNK_ITEMS * h.index1ItemSize];
+            long pos = h.index1Offset;
+            while (buffer.hasRemaining()) {
+                int count = Math.min(chunk.length, buffer.remaining());
+                file.read(pos, chunk, 0, count);
+                buffer.put(chunk, 0, count);
+                pos += count;
+            }
+            result = new DirectIndexTable(buffer, h);
+        }
+        else {
+            result = new FileIndexTable(file, h);
+        }
+        Log.d(TAG, String.format("Loaded %s for %d items in %d", result.getClass().getSimpleName(),
+                h.indexCount, System.currentTimeMillis() - t0));
+        return result;
+    }
+
+    private static IndexTable loadPacked(VolumeFile file, Header h) throws IOException {
+        int count = (int)h.indexCount;
+        boolean ints = fitsInt(h.keyPointerSpec) && fitsInt(h.articlePointerSpec);
+        IntIndexTable intTable = null;
+        LongIndexTable longTable = null;
+        if (ints) {
+            intTable = new IntIndexTable(count, isUnsigned(h.keyPointerSpec),
+                    isUnsigned(h.articlePointerSpec));
+        }
+        else {
+            longTable = new LongIndexTable(count);
+        }
+        byte[] chunk = new byte[LOAD_CHUNK_ITEMS * h.index1ItemSize];
+        ByteBuffer b = ByteBuffer.wrap(chunk);
+        DirectIndexTable decoder = new DirectIndexTable(b, h);
+        for (int start = 0; start < count; start += LOAD_CHUNK_ITEMS) {
+            int items = Math.min(LOAD_CHUNK_ITEMS, count - start);
+            file.read(h.index1Offset + (long)start * h.index1ItemSize, chunk, 0, items * h.index1ItemSize);
+            for (int j = 0; j < items; j++) {
+                long keyPointer = decoder.keyPointer(j);
+                long articlePointer = decoder.articlePointer(j);
+                if (ints) {
+                    intTable.keyPointers[start + j] = (int)keyPointer;
+                    intTable.articlePointers[start + j] = (int)articlePointer;
+                }
+                else {
+                    longTable.keyPointers[start + j] = keyPointer;
+                    longTable.articlePointers[start + j] = articlePointer;
+                }
+            }
+        }
+        return ints ? intTable : longTable;
+    }
+}
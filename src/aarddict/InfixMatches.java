@@ -0,0 +1,97 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import android.util.Log;
+
+/**
+ * Titles of one volume that contain the lookup word anywhere, in index
+ * order. Candidates are the titles that have all of the word's trigrams,
+ * found by intersecting postings of the {@link TitleGramIndex}. Each one
+ * is checked when it is reached, since having the trigrams doesn't mean
+ * having them in sequence. Words shorter than a trigram and volumes
+ * without a trigram index yet have no matches.
+ */
+final class InfixMatches implements IndexIterator {
+
+    private final static String TAG = InfixMatches.class.getName();
+
+    private final Volume      volume;
+    private final String      query;
+    private final String      section;
+    private final LookupToken token;
+    private int[]             candidates = new int[0];
+    private int               position;
+    private Entry             nextEntry;
+    private int               nextIndex = -1;
+
+    InfixMatches(Volume volume, LookupWord word, LookupToken token) {
+        this.volume = volume;
+        this.section = word.section;
+        this.token = token;
+        this.query = word.word == null ? "" : TitleGramIndex.normalize(word.word);
+        TitleGramIndex index = volume.titleGrams;
+        if (index != null && query.length() >= 3) {
+            long[] grams = TitleGramIndex.grams(query, false);
+            try {
+                candidates = index.candidates(grams, grams.length, token);
+            }
+            catch (IOException e) {
+                Log.e(TAG, "Failed to read trigrams of " + volume.getId(), e);
+            }
+        }
+        prepareNext();
+    }
+
+    private void prepareNext() {
+        nextEntry = null;
+        while (position < candidates.length) {
+            token.check();
+            int index = candidates[position++];
+            Entry entry = volume.get(index);
+            if (TitleGramIndex.normalize(entry.title).indexOf(query) != -1) {
+                nextIndex = index;
+                nextEntry = new Entry(entry.volumeId, entry.title, entry.articlePointer);
+                nextEntry.section = section;
+                return;
+            }
+        }
+    }
+
+    public int nextIndex() {
+        return nextIndex;
+    }
+
+    public boolean hasNext() {
+        return nextEntry != null;
+    }
+
+    public Entry next() {
+        if (nextEntry == null) {
+            throw new NoSuchElementException();
+        }
+        Entry current = nextEntry;
+        prepareNext();
+        return current;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
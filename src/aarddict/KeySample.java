@@ -0,0 +1,119 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * Every <code>interval</code>-th title of a volume kept in memory. A lookup
+ * first searches the sample and then only the range of the on-disk index
+ * between two neighbouring samples.
+ */
+final class KeySample {
+
+    private final static int VERSION = 1;
+
+    final int     interval;
+    final int     size;
+    final Entry[] entries;
+
+    private KeySample(int interval, int size, Entry[] entries) {
+        this.interval = interval;
+        this.size = size;
+        this.entries = entries;
+    }
+
+    static KeySample build(Volume volume, int interval) {
+        int size = volume.size();
+        Entry[] entries = new Entry[(size + interval - 1) / interval];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(volume.getId(), volume.get(i * interval).title);
+        }
+        return new KeySample(interval, size, entries);
+    }
+
+    /**
+     * Returns the index range <code>{lo, hi}</code> of the volume in which
+     * the first entry not less than <code>key</code> lies.
+     */
+    int[] range(Entry key, Comparator<Entry> c) {
+        int lo = 0;
+        int hi = entries.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c.compare(entries[mid], key) < 0) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        if (lo == 0) {
+            return new int[] {0, 0};
+        }
+        int start = (lo - 1) * interval + 1;
+        int end = lo == entries.length ? size : lo * interval;
+        return new int[] {start, end};
+    }
+
+    static KeySample load(File file, String sha1sum, int interval) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != VERSION || !sha1sum.equals(in.readUTF())
+                    || in.readInt() != interval) {
+                return null;
+            }
+            int size = in.readInt();
+            Entry[] entries = new Entry[in.readInt()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = new Entry(sha1sum, in.readUTF());
+            }
+            return new KeySample(interval, size, entries);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    void save(File file, String sha1sum) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(VERSION);
+            out.writeUTF(sha1sum);
+            out.writeInt(interval);
+            out.writeInt(size);
+            out.writeInt(entries.length);
+            for (Entry e : entries) {
+                out.writeUTF(e.title);
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to rename " + tmp);
+        }
+    }
+}
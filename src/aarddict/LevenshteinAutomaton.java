@@ -0,0 +1,83 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+/**
+ * Accepts strings within a maximum edit distance of a query. The state
+ * after reading a prefix of the input is the row of edit distances
+ * between that prefix and every prefix of the query. Input is rejected
+ * as soon as no state is within the maximum distance, so most strings
+ * are rejected after a few characters. Not thread safe.
+ */
+final class LevenshteinAutomaton {
+
+    final String query;
+    final int    max;
+
+    private final int[] row;
+
+    LevenshteinAutomaton(String query, int max) {
+        this.query = query;
+        this.max = max;
+        this.row = new int[query.length() + 1];
+    }
+
+    /**
+     * Maximum edit distance for fuzzy matching a query of the given
+     * length, 0 if the query is too short to be matched approximately.
+     */
+    static int maxDistance(int length) {
+        if (length < 3) {
+            return 0;
+        }
+        return length <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Edit distance between the query and <code>s</code>, or
+     * <code>max + 1</code> if it is larger than <code>max</code>.
+     */
+    int distance(CharSequence s) {
+        int n = query.length();
+        if (Math.abs(s.length() - n) > max) {
+            return max + 1;
+        }
+        for (int j = 0; j <= n; j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= s.length(); i++) {
+            char c = s.charAt(i - 1);
+            int diagonal = row[0];
+            row[0] = i;
+            int min = i;
+            for (int j = 1; j <= n; j++) {
+                int above = row[j];
+                int d = diagonal + (query.charAt(j - 1) == c ? 0 : 1);
+                d = Math.min(d, above + 1);
+                d = Math.min(d, row[j - 1] + 1);
+                row[j] = d;
+                diagonal = above;
+                if (d < min) {
+                    min = d;
+                }
+            }
+            if (min > max) {
+                return max + 1;
+            }
+        }
+        return Math.min(row[n], max + 1);
+    }
+}
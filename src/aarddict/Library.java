@@ -16,26 +16,199 @@
 package aarddict;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.util.Log;
 
-public final class Library extends ArrayList<Volume> {
+/**
+ * Open volumes in preference order. The volume list is replaced as a
+ * whole on every change, so lookups and iteration work on a consistent
+ * snapshot while volumes are opened and closed. Every change goes through
+ * one method, which also rebuilds the indexes by volume, dictionary and
+ * server.
+ */
+public final class Library implements Iterable<Volume> {
 
     int                         maxRedirectLevels = 5;
 
+    public static int           MAX_TEXT_MATCHES  = 200;
+
+    /**
+     * Number of entries kept for a followed link, as many as a link's
+     * article view offers.
+     */
+    public static int           MAX_LINK_MATCHES  = 20;
+
     private final static String TAG               = Library.class.getName();
 
+    /**
+     * Searches volumes in parallel. Threads are daemons and the pool is
+     * bounded by the number of processors.
+     */
+    private final ExecutorService lookupExecutor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Lookup-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private volatile List<Volume> volumes = Collections.emptyList();
+
+    /**
+     * Volumes by id and by dictionary, in library order. Rebuilt when
+     * volumes are added, removed or reordered and replaced as a whole, so
+     * readers never see a half updated map.
+     */
+    private volatile Map<String, Volume>     volumesById  = Collections.emptyMap();
+    private volatile Map<UUID, List<Volume>> dictionaries = Collections.emptyMap();
+
+    /**
+     * Dictionaries by the server url of their article url template, in
+     * library order.
+     */
+    private volatile Map<String, List<UUID>> serverDictionaries = Collections.emptyMap();
+
+    /**
+     * Resolved links, depend on which volumes are open and their order.
+     */
+    private final LinkCache linkCache = new LinkCache(256);
+
+    /**
+     * Replaces the volume list with <code>newVolumes</code> and rebuilds
+     * the indexes, the only way volumes change.
+     */
+    private synchronized void setVolumes(List<Volume> newVolumes) {
+        Map<String, Volume> byId = new HashMap<String, Volume>();
+        Map<UUID, List<Volume>> byDictionary = new LinkedHashMap<UUID, List<Volume>>();
+        Map<String, List<UUID>> byServer = new HashMap<String, List<UUID>>();
+        for (Volume d : newVolumes) {
+            byId.put(d.getId(), d);
+            List<Volume> dictionaryVolumes = byDictionary.get(d.getDictionaryId());
+            if (dictionaryVolumes == null) {
+                dictionaryVolumes = new ArrayList<Volume>();
+                byDictionary.put(d.getDictionaryId(), dictionaryVolumes);
+            }
+            dictionaryVolumes.add(d);
+            String serverUrl = d.getArticleURLTemplate();
+            if (serverUrl != null) {
+                List<UUID> ids = byServer.get(serverUrl);
+                if (ids == null) {
+                    ids = new ArrayList<UUID>();
+                    byServer.put(serverUrl, ids);
+                }
+                if (!ids.contains(d.getDictionaryId())) {
+                    ids.add(d.getDictionaryId());
+                }
+            }
+        }
+        for (Map.Entry<UUID, List<Volume>> e : byDictionary.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        volumes = Collections.unmodifiableList(new ArrayList<Volume>(newVolumes));
+        volumesById = byId;
+        dictionaries = Collections.unmodifiableMap(byDictionary);
+        serverDictionaries = byServer;
+        linkCache.clear();
+    }
+
+    public synchronized void add(Volume d) {
+        List<Volume> newVolumes = new ArrayList<Volume>(volumes);
+        newVolumes.add(d);
+        setVolumes(newVolumes);
+    }
+
+    public synchronized boolean remove(Volume d) {
+        List<Volume> newVolumes = new ArrayList<Volume>(volumes);
+        if (!newVolumes.remove(d)) {
+            return false;
+        }
+        setVolumes(newVolumes);
+        return true;
+    }
+
+    public synchronized void clear() {
+        setVolumes(Collections.<Volume> emptyList());
+    }
+
+    /**
+     * Volumes in library order, a snapshot that later changes don't
+     * affect.
+     */
+    public List<Volume> getVolumes() {
+        return volumes;
+    }
+
+    public Volume get(int index) {
+        return volumes.get(index);
+    }
+
+    public int size() {
+        return volumes.size();
+    }
+
+    public boolean isEmpty() {
+        return volumes.isEmpty();
+    }
+
+    /**
+     * Iterates over a snapshot of the volumes, which can't be removed
+     * through it.
+     */
+    public Iterator<Volume> iterator() {
+        return volumes.iterator();
+    }
+
+    /**
+     * Entries a link resolves to, at most {@link #MAX_LINK_MATCHES}.
+     * Links followed before are answered from a cache until volumes are
+     * opened, closed or reordered.
+     */
     public Iterator<Entry> followLink(final String word, String fromVolumeId)
             throws ArticleNotFound {
+        return followLink(word, fromVolumeId, lookupExecutor);
+    }
+
+    /**
+     * Same as {@link #followLink(String, String)}, searching volumes on
+     * <code>executor</code>, or on the calling thread if it is
+     * <code>null</code>.
+     */
+    Iterator<Entry> followLink(final String word, String fromVolumeId, ExecutorService executor)
+            throws ArticleNotFound {
+        List<Entry> entries = linkCache.get(word, fromVolumeId);
+        if (entries == null) {
+            // volumes may change while the link is resolved
+            long generation = linkCache.getGeneration();
+            entries = resolveLink(word, fromVolumeId, executor);
+            linkCache.put(word, fromVolumeId, entries, generation);
+        }
+        return entries.iterator();
+    }
+
+    private List<Entry> resolveLink(final String word, String fromVolumeId,
+            ExecutorService executor) throws ArticleNotFound {
         Log.d(TAG, String.format("Follow link \"%s\", %s", word, fromVolumeId));
         Volume fromDict = getVolume(fromVolumeId);
         Metadata fromMeta = fromDict.metadata;
@@ -57,50 +230,53 @@ public final class Library extends ArrayList<Volume> {
             lookupWord.mergeNameSpace();
         }
 
-        Comparator<Entry>[] comparators = EntryComparators.ALL_FULL;
-
-        if (lookupWord.word != null) {
-            if (lookupWord.word.length() == 1)
-                comparators = EntryComparators.EXACT;
-            else if (lookupWord.word.length() == 2)
-                comparators = EntryComparators.EXACT_IGNORE_CASE;
-        }
+        Comparator<Entry>[] comparators = linkComparators(lookupWord);
 
-        final List<Volume> dicts = new ArrayList<Volume>(this);
+        final List<Volume> dicts = new ArrayList<Volume>(volumes);
         for (int i = 0; i < matchingDicts.size(); i++) {
             UUID target = matchingDicts.get(i);
             Comparator<Volume> c = new PreferredDictionaryComparator(target);
             Collections.sort(dicts.subList(i, dicts.size()), c);
         }
 
-        MatchIterator result = new MatchIterator(comparators, dicts, lookupWord);
-        
-        if (result.hasNext()) {
-            return result;
-        } else {
+        MatchIterator result = new MatchIterator(comparators, dicts, lookupWord, executor,
+                LookupToken.NONE, null, false, false);
+        List<Entry> entries = new ArrayList<Entry>();
+        while (result.hasNext() && entries.size() < MAX_LINK_MATCHES) {
+            entries.add(result.next());
+        }
+        result.cancel();
+        if (entries.isEmpty()) {
             throw new ArticleNotFound(lookupWord);
         }
+        return entries;
+    }
+
+    /**
+     * Match tiers for following a link, short words match only exactly.
+     */
+    static Comparator<Entry>[] linkComparators(LookupWord lookupWord) {
+        Comparator<Entry>[] comparators = EntryComparators.ALL_FULL;
+
+        if (lookupWord.word != null) {
+            if (lookupWord.word.length() == 1)
+                comparators = EntryComparators.EXACT;
+            else if (lookupWord.word.length() == 2)
+                comparators = EntryComparators.EXACT_IGNORE_CASE;
+        }
+        return comparators;
     }
 
     private List<UUID> findMatchingDicts(String serverUrl) {
         Log.d(TAG, "Looking for dictionary with server url " + serverUrl);
-        Set<UUID> seen = new HashSet<UUID>();
         List<UUID> result = new ArrayList<UUID>();
         if (serverUrl == null) {
             Log.d(TAG, "Server url is null");
             return result;
         }
-        for (Volume d : this) {
-            String articleURLTemplate = d.getArticleURLTemplate();
-            Log.d(TAG, "Looking at article url template: " + articleURLTemplate);
-            if (articleURLTemplate != null
-                    && serverUrl.equals(articleURLTemplate)) {
-                Log.d(TAG, String.format(
-                        "Dictionary with server url %s found: %s", serverUrl,
-                        d.getDictionaryId()));
-                if (!seen.contains(d.getDictionaryId()))
-                    result.add(d.getDictionaryId());
-            }
+        List<UUID> found = serverDictionaries.get(serverUrl);
+        if (found != null) {
+            result.addAll(found);
         }
         if (result.isEmpty()) {
             Log.d(TAG, String.format("Dictionary with server url %s not found",
@@ -110,11 +286,70 @@ public final class Library extends ArrayList<Volume> {
     }
 
     public Iterator<Entry> bestMatch(String word) {
+        return bestMatch(word, LookupToken.NONE);
+    }
+
+    /**
+     * Looks up <code>word</code> until <code>token</code> is cancelled or
+     * runs out of time, the returned iterator then reports
+     * {@link MatchIterator#isIncomplete()}.
+     */
+    public MatchIterator bestMatch(String word, LookupToken token) {
+        return bestMatch(word, token, null);
+    }
+
+    /**
+     * Same as {@link #bestMatch(String, LookupToken)}, searching within
+     * ranges <code>session</code> remembers from previous lookups of
+     * prefixes of <code>word</code>. Titles containing <code>word</code>
+     * follow the other matches. If nothing matches, titles within a small
+     * edit distance of <code>word</code> are returned instead.
+     */
+    public MatchIterator bestMatch(String word, LookupToken token, LookupSession session) {
         LookupWord lookupWord = LookupWord.splitWord(word);
         // best match is used with human input,
         // assume ":" is never used as namespace separator
         lookupWord.mergeNameSpace();
-        return new MatchIterator(EntryComparators.ALL, this, lookupWord);
+        return new MatchIterator(EntryComparators.ALL, volumes, lookupWord, lookupExecutor, token, session, true, true);
+    }
+
+    /**
+     * Same matches as {@link #bestMatch(String, LookupToken, LookupSession)},
+     * accessible by position and not limited per volume.
+     */
+    public LookupResult lookup(String word, LookupToken token, LookupSession session) {
+        LookupWord lookupWord = LookupWord.splitWord(word);
+        lookupWord.mergeNameSpace();
+        return new LookupResult(word, EntryComparators.ALL, volumes, lookupWord, lookupExecutor, token, session, true, true);
+    }
+
+    /**
+     * Titles whose articles contain all words of <code>query</code>, in
+     * volume and index order. Only volumes with a text index are
+     * searched, see {@link Volume#buildTextIndex}.
+     */
+    public List<Entry> searchText(String query, LookupToken token) {
+        List<Entry> result = new ArrayList<Entry>();
+        for (Volume volume : volumes) {
+            ArticleTextIndex index = volume.textIndex;
+            if (index == null) {
+                continue;
+            }
+            int[] matches;
+            try {
+                matches = index.search(query, token);
+            }
+            catch (IOException e) {
+                Log.e(TAG, "Failed to search text of " + volume.getId(), e);
+                continue;
+            }
+            for (int i = 0; i < matches.length && result.size() < MAX_TEXT_MATCHES; i++) {
+                token.check();
+                Entry entry = volume.get(matches[i]);
+                result.add(new Entry(entry.volumeId, entry.title, entry.articlePointer));
+            }
+        }
+        return result;
     }
 
     public Article getArticle(Entry e) throws IOException {
@@ -125,8 +360,128 @@ public final class Library extends ArrayList<Volume> {
         return a;
     }
 
-    Article redirect(Article article, int level) throws RedirectTooManyLevels,
-            ArticleNotFound, IOException {
+    /**
+     * Reads articles of <code>entries</code>, in the same order, like
+     * {@link #getArticle} would one by one. Articles not in the article
+     * cache are read volume by volume in file order, nearby ones with one
+     * read, and decompressed in parallel. Entries of volumes that are not
+     * open get <code>null</code>.
+     */
+    public List<Article> getArticles(List<Entry> entries) throws IOException {
+        return getArticles(entries, lookupExecutor);
+    }
+
+    /**
+     * Same as {@link #getArticles(List)}, decompressing on
+     * <code>executor</code>, or one by one on the calling thread if it is
+     * <code>null</code>.
+     */
+    List<Article> getArticles(List<Entry> entries, ExecutorService executor) throws IOException {
+        Article[] result = new Article[entries.size()];
+        Map<String, Map<Long, List<Integer>>> misses = new LinkedHashMap<String, Map<Long, List<Integer>>>();
+        for (int i = 0; i < result.length; i++) {
+            Entry e = entries.get(i);
+            Volume d = getVolume(e.volumeId);
+            if (d == null) {
+                continue;
+            }
+            Article a = ArticleCache.shared.get(d.getId(), e.articlePointer);
+            if (a != null) {
+                a.title = e.title;
+                a.section = e.section;
+                result[i] = a;
+                continue;
+            }
+            Map<Long, List<Integer>> pointers = misses.get(d.getId());
+            if (pointers == null) {
+                pointers = new TreeMap<Long, List<Integer>>();
+                misses.put(d.getId(), pointers);
+            }
+            List<Integer> positions = pointers.get(e.articlePointer);
+            if (positions == null) {
+                positions = new ArrayList<Integer>(1);
+                pointers.put(e.articlePointer, positions);
+            }
+            positions.add(i);
+        }
+        final List<Volume> readVolumes = new ArrayList<Volume>();
+        final List<Volume.ArticleBytes> reads = new ArrayList<Volume.ArticleBytes>();
+        for (Map.Entry<String, Map<Long, List<Integer>>> miss : misses.entrySet()) {
+            Volume d = getVolume(miss.getKey());
+            long[] pointers = new long[miss.getValue().size()];
+            int n = 0;
+            for (Long pointer : miss.getValue().keySet()) {
+                pointers[n++] = pointer;
+            }
+            for (Volume.ArticleBytes bytes : d.readArticleBytes(pointers)) {
+                readVolumes.add(d);
+                reads.add(bytes);
+            }
+        }
+        Article[] decoded = new Article[reads.size()];
+        if (decoded.length == 1 || executor == null) {
+            for (int i = 0; i < decoded.length; i++) {
+                decoded[i] = readVolumes.get(i).decodeArticle(reads.get(i));
+            }
+        }
+        else if (decoded.length > 1) {
+            List<Future<Article>> pending = new ArrayList<Future<Article>>(decoded.length);
+            for (int i = 0; i < decoded.length; i++) {
+                final int k = i;
+                pending.add(executor.submit(new Callable<Article>() {
+                    public Article call() throws IOException {
+                        return readVolumes.get(k).decodeArticle(reads.get(k));
+                    }
+                }));
+            }
+            try {
+                for (int i = 0; i < decoded.length; i++) {
+                    decoded[i] = decodedArticle(pending.get(i));
+                }
+            }
+            finally {
+                for (Future<Article> f : pending) {
+                    f.cancel(false);
+                }
+            }
+        }
+        for (int i = 0; i < decoded.length; i++) {
+            Volume d = readVolumes.get(i);
+            Article a = decoded[i];
+            ArticleCache.shared.put(d.getId(), a.pointer, a);
+            for (int position : misses.get(d.getId()).get(a.pointer)) {
+                Entry e = entries.get(position);
+                Article copy = new Article(a);
+                copy.title = e.title;
+                copy.section = e.section;
+                result[position] = copy;
+            }
+        }
+        return Arrays.asList(result);
+    }
+
+    private static Article decodedArticle(Future<Article> f) throws IOException {
+        try {
+            return f.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing articles");
+        }
+    }
+
+    Article redirect(Article article, int level, ExecutorService executor)
+            throws RedirectTooManyLevels, ArticleNotFound, IOException {
         if (level > maxRedirectLevels) {
             throw new RedirectTooManyLevels();
         }
@@ -135,38 +490,118 @@ public final class Library extends ArrayList<Volume> {
             return article;
         }
 
-        Iterator<Entry> result = followLink(article.getRedirect(),
-                article.volumeId);
-        Entry redirectEntry = result.next();
+        Entry target = redirectTarget(article, level);
+        if (target != null) {
+            return getArticle(target);
+        }
+
+        Entry redirectEntry = followLink(article.getRedirectLink(),
+                article.volumeId, executor).next();
+        if (redirectEntry.section == null) {
+            // a link without a section keeps the one followed so far
+            redirectEntry.section = article.section;
+        }
         Article redirectArticle = getArticle(redirectEntry);
-        return redirect(redirectArticle, level + 1);
+        return redirect(redirectArticle, level + 1, executor);
+    }
+
+    /**
+     * Final target of a redirect from the volume's redirect table, or
+     * <code>null</code> if the table doesn't have it. The table only knows
+     * chains that stay in one volume, so it is used only when that volume
+     * is the only open one of its dictionary: otherwise another volume
+     * could have a match that comes first.
+     */
+    private Entry redirectTarget(Article article, int level) throws RedirectTooManyLevels,
+            IOException {
+        Volume d = getVolume(article.volumeId);
+        RedirectTable table = d == null ? null : d.redirects;
+        if (table == null || dictionaries.get(d.getDictionaryId()).size() != 1) {
+            return null;
+        }
+        RedirectTable.Target target = table.get(article.pointer);
+        if (target == null) {
+            return null;
+        }
+        if (target.isLoop() || level + target.depth > maxRedirectLevels) {
+            throw new RedirectTooManyLevels();
+        }
+        Entry entry = d.get(target.index);
+        Entry result = new Entry(entry.volumeId, entry.title, entry.articlePointer);
+        result.section = target.section == null ? article.section : target.section;
+        return result;
     }
 
     public Article redirect(Article article) throws RedirectTooManyLevels,
             ArticleNotFound, IOException {
-        Article result = redirect(article, 0);
+        return redirect(article, lookupExecutor);
+    }
+
+    /**
+     * Same as {@link #redirect(Article)}, following links with volumes
+     * searched on <code>executor</code>, or on the calling thread if it is
+     * <code>null</code>.
+     */
+    Article redirect(Article article, ExecutorService executor) throws RedirectTooManyLevels,
+            ArticleNotFound, IOException {
+        Article result = redirect(article, 0, executor);
         if (result != article) {
             result.redirectedFromTitle = article.title;
         }
         return result;
     }
 
+    /**
+     * Block cache shared by all volumes for index reads that aren't served
+     * from a mapped window.
+     */
+    public BlockCache getBlockCache() {
+        return BlockCache.shared;
+    }
+
+    /**
+     * Decoded article cache shared by all volumes.
+     */
+    public ArticleCache getArticleCache() {
+        return ArticleCache.shared;
+    }
+
     public Volume getVolume(String volumeId) {
+        return volumeId == null ? null : volumesById.get(volumeId);
+    }
 
-        for (Volume d : this) {
-            if (d.sha1sum.equals(volumeId)) {
-                return d;
-            }
-        }
-        return null;
+    /**
+     * Volumes of each dictionary, dictionaries and volumes in library
+     * order.
+     */
+    public Map<UUID, List<Volume>> getDictionaries() {
+        return dictionaries;
+    }
+
+    /**
+     * Display title of a volume, or <code>null</code> if it is not in the
+     * library.
+     */
+    public CharSequence getDisplayTitle(String volumeId) {
+        Volume d = getVolume(volumeId);
+        return d == null ? null : d.getDisplayTitle();
+    }
+
+    /**
+     * Stops lookup threads, the library can't be searched afterwards.
+     */
+    public void shutdown() {
+        lookupExecutor.shutdownNow();
     }
 
-    public void makeFirst(String volumeId) {
+    public synchronized void makeFirst(String volumeId) {
         Volume d = getVolume(volumeId);
         if (d != null) {
             Comparator<Volume> c = new PreferredDictionaryComparator(
                     d.getDictionaryId());
-            Collections.sort(this, c);
+            List<Volume> sorted = new ArrayList<Volume>(volumes);
+            Collections.sort(sorted, c);
+            setVolumes(sorted);
         }
     }
 }
\ No newline at end of file
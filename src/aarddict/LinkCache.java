@@ -0,0 +1,119 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entries links resolved to, keyed by link text and the volume the link
+ * is in, least recently used evicted first. Entries are copied on the way
+ * in and out, callers are free to modify what they get.
+ * <p>
+ * Each {@link #clear} starts a new generation. A link resolved while the
+ * cache was cleared is not put, since it may have been resolved against
+ * volumes that are gone.
+ */
+final class LinkCache {
+
+    private final static class Key {
+
+        final String link;
+        final String volumeId;
+
+        Key(String link, String volumeId) {
+            this.link = link;
+            this.volumeId = volumeId;
+        }
+
+        @Override
+        public int hashCode() {
+            return link.hashCode() * 31 + volumeId.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return link.equals(other.link) && volumeId.equals(other.volumeId);
+        }
+    }
+
+    private final Map<Key, List<Entry>> links;
+    private long                        generation;
+    private long                        hits;
+    private long                        misses;
+
+    LinkCache(final int capacity) {
+        links = new LinkedHashMap<Key, List<Entry>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<Entry>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private static List<Entry> copy(List<Entry> entries) {
+        List<Entry> result = new ArrayList<Entry>(entries.size());
+        for (Entry e : entries) {
+            Entry copy = new Entry(e.volumeId, e.title, e.articlePointer);
+            copy.section = e.section;
+            result.add(copy);
+        }
+        return result;
+    }
+
+    synchronized List<Entry> get(String link, String volumeId) {
+        List<Entry> entries = links.get(new Key(link, volumeId));
+        if (entries == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(entries);
+    }
+
+    /**
+     * Generation to pass to {@link #put}, taken before resolving a link.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches entries of a link resolved in <code>generation</code>, unless
+     * the cache has been cleared since.
+     */
+    synchronized void put(String link, String volumeId, List<Entry> entries, long generation) {
+        if (generation == this.generation) {
+            links.put(new Key(link, volumeId), copy(entries));
+        }
+    }
+
+    synchronized void clear() {
+        links.clear();
+        generation++;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LinkCache: %d links, %d hits, %d misses", links.size(), hits, misses);
+    }
+}
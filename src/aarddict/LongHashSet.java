@@ -0,0 +1,110 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative longs in a single array, with open addressing and
+ * linear probing. Adding a value allocates nothing unless the table has
+ * to grow.
+ */
+final class LongHashSet {
+
+    private final static long FREE = -1;
+
+    private long[] table;
+    private int    size;
+    private int    mask;
+
+    LongHashSet() {
+        this(16);
+    }
+
+    LongHashSet(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        Arrays.fill(table, FREE);
+        mask = capacity - 1;
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    /**
+     * Adds <code>value</code>, returns <code>false</code> if it was
+     * already in the set.
+     */
+    boolean add(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        int i = hash(value) & mask;
+        while (table[i] != FREE) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        if (++size * 2 > table.length) {
+            grow();
+        }
+        return true;
+    }
+
+    boolean contains(long value) {
+        int i = hash(value) & mask;
+        while (table[i] != FREE) {
+            if (table[i] == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    private void grow() {
+        long[] old = table;
+        allocate(old.length << 1);
+        for (long value : old) {
+            if (value != FREE) {
+                int i = hash(value) & mask;
+                while (table[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = value;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
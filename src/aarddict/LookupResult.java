@@ -0,0 +1,476 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Lookup matches that can be accessed by position, ordered the way
+ * {@link MatchIterator} orders them: by tier, then by volume, then in
+ * index order. Volumes are searched in parallel, once each. The matches
+ * of a tier in a volume are its index range minus the ranges of stronger
+ * tiers, kept as a list of intervals, so counting matches and finding the
+ * entry at a position takes interval arithmetic rather than reading
+ * titles, and only entries of requested pages are read. Unlike
+ * {@link MatchIterator}, tiers are not limited to
+ * {@link MatchIterator#MAX_FROM_VOL} matches per volume. A range ends at
+ * the bound search's result rather than at the first entry that doesn't
+ * match, so an entry that differs only in case but sorts among a tier's
+ * matches is counted with them.
+ * <p>
+ * Titles that only start with the lookup word, or contain it, are left
+ * out if their article is a redirect, as far as the volume's
+ * {@link RedirectTable} knows: the target is listed in its own right when
+ * it matches. Redirects are counted and skipped with the table's bits,
+ * titles are not read for that either.
+ * <p>
+ * Infix and fuzzy matches can't be counted from ranges. They are found
+ * the first time a position past the tiers is requested, or the total
+ * size is, and are limited to {@link MatchIterator#MAX_FROM_VOL} per
+ * volume.
+ */
+public final class LookupResult {
+
+    /**
+     * Tier, volume ordinal and index position of a match.
+     */
+    private final static class Position {
+
+        final int tier;
+        final int volume;
+        final int index;
+
+        Position(int tier, int volume, int index) {
+            this.tier = tier;
+            this.volume = volume;
+            this.index = index;
+        }
+    }
+
+    final String              query;
+    final LookupWord          word;
+    final List<Volume>        volumes;
+    final Comparator<Entry>[] tiers;
+    final LookupToken         token;
+    final boolean             infix;
+    final boolean             fuzzy;
+
+    /**
+     * Per tier and volume, start and end of each interval of matches.
+     */
+    private final int[][][]   intervals;
+
+    /**
+     * Per volume, redirect table at the time of the lookup, if any.
+     */
+    private final RedirectTable[] redirects;
+
+    /**
+     * Per tier, whether redirects are left out of its matches.
+     */
+    private final boolean[]   collapse;
+
+    /**
+     * Per tier and volume, position of the first match.
+     */
+    private final int[][]     offsets;
+
+    /**
+     * Per tier and volume, number of matches.
+     */
+    private final int[][]     counts;
+
+    /**
+     * Position after the last match of each tier and volume, in tier then
+     * volume order, for finding the tier and volume of a position.
+     */
+    private final int[]       ends;
+
+    private final int[]       tierCounts;
+    private final int         rangeCount;
+    private List<Entry>       extra;
+    private boolean           incomplete;
+
+    LookupResult(String query, Comparator<Entry>[] comparators, List<Volume> volumes,
+            final LookupWord word, ExecutorService executor, final LookupToken token,
+            final LookupSession session, boolean infix, boolean fuzzy) {
+        this.query = query;
+        this.tiers = comparators;
+        this.volumes = new ArrayList<Volume>(volumes);
+        this.word = word;
+        this.token = token;
+        this.infix = infix;
+        this.fuzzy = fuzzy;
+        int volumeCount = this.volumes.size();
+        List<Future<VolumeMatches>> pending = new ArrayList<Future<VolumeMatches>>(volumeCount);
+        for (final Volume vol : this.volumes) {
+            pending.add(executor.submit(new Callable<VolumeMatches>() {
+                public VolumeMatches call() {
+                    return new VolumeMatches(vol, word, tiers, token, session);
+                }
+            }));
+        }
+        intervals = new int[tiers.length][volumeCount][];
+        try {
+            for (int v = 0; v < volumeCount; v++) {
+                VolumeMatches m = get(pending.get(v));
+                int[] covered = new int[0];
+                for (int t = 0; t < tiers.length; t++) {
+                    int[] tierRange = new int[] {m.tierStart[t], m.tierEnd(t)};
+                    intervals[t][v] = subtract(tierRange, covered);
+                    covered = union(covered, tierRange);
+                }
+            }
+        }
+        catch (CancellationException e) {
+            incomplete = true;
+            for (Future<VolumeMatches> f : pending) {
+                f.cancel(false);
+            }
+        }
+        redirects = new RedirectTable[volumeCount];
+        for (int v = 0; v < volumeCount; v++) {
+            redirects[v] = this.volumes.get(v).redirects;
+        }
+        collapse = new boolean[tiers.length];
+        for (int t = 0; t < tiers.length; t++) {
+            collapse[t] = tiers[t] instanceof EntryStartComparator;
+        }
+        offsets = new int[tiers.length][volumeCount];
+        counts = new int[tiers.length][volumeCount];
+        ends = new int[tiers.length * volumeCount];
+        tierCounts = new int[tiers.length];
+        int offset = 0;
+        for (int t = 0; t < tiers.length; t++) {
+            for (int v = 0; v < volumeCount; v++) {
+                if (intervals[t][v] == null) {
+                    intervals[t][v] = new int[0];
+                }
+                offsets[t][v] = offset;
+                counts[t][v] = count(t, v);
+                tierCounts[t] += counts[t][v];
+                offset += counts[t][v];
+                ends[t * volumeCount + v] = offset;
+            }
+        }
+        rangeCount = offset;
+    }
+
+    private static VolumeMatches get(Future<VolumeMatches> f) {
+        try {
+            return f.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for lookup results");
+        }
+    }
+
+    private int count(int tier, int volume) {
+        int[] tierIntervals = intervals[tier][volume];
+        int count = 0;
+        for (int i = 0; i < tierIntervals.length; i += 2) {
+            count += length(tier, volume, tierIntervals[i], tierIntervals[i + 1]);
+        }
+        return count;
+    }
+
+    private RedirectTable collapsed(int tier, int volume) {
+        return collapse[tier] ? redirects[volume] : null;
+    }
+
+    /**
+     * Number of matches in <code>[start, end)</code>, without redirects if
+     * they are left out of the tier.
+     */
+    private int length(int tier, int volume, int start, int end) {
+        RedirectTable table = collapsed(tier, volume);
+        if (table == null) {
+            return end - start;
+        }
+        try {
+            return end - start - table.countRedirects(start, end);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Index position of the match <code>n</code> matches after
+     * <code>start</code>.
+     */
+    private int index(int tier, int volume, int start, int n) {
+        RedirectTable table = collapsed(tier, volume);
+        if (table == null) {
+            return start + n;
+        }
+        try {
+            return table.nonRedirect(start, n);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parts of <code>range</code> not covered by sorted disjoint
+     * <code>covered</code> intervals.
+     */
+    static int[] subtract(int[] range, int[] covered) {
+        int[] result = new int[covered.length + 2];
+        int n = 0;
+        int start = range[0];
+        int end = range[1];
+        for (int i = 0; i < covered.length && start < end; i += 2) {
+            if (covered[i + 1] <= start) {
+                continue;
+            }
+            if (covered[i] >= end) {
+                break;
+            }
+            if (covered[i] > start) {
+                result[n++] = start;
+                result[n++] = covered[i];
+            }
+            start = Math.max(start, covered[i + 1]);
+        }
+        if (start < end) {
+            result[n++] = start;
+            result[n++] = end;
+        }
+        int[] trimmed = new int[n];
+        System.arraycopy(result, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    /**
+     * Sorted disjoint intervals covering <code>covered</code> and
+     * <code>range</code>.
+     */
+    static int[] union(int[] covered, int[] range) {
+        if (range[0] >= range[1]) {
+            return covered;
+        }
+        int[] result = new int[covered.length + 2];
+        int n = 0;
+        int start = range[0];
+        int end = range[1];
+        boolean added = false;
+        for (int i = 0; i < covered.length; i += 2) {
+            if (covered[i + 1] < start) {
+                result[n++] = covered[i];
+                result[n++] = covered[i + 1];
+            }
+            else if (covered[i] > end) {
+                if (!added) {
+                    result[n++] = start;
+                    result[n++] = end;
+                    added = true;
+                }
+                result[n++] = covered[i];
+                result[n++] = covered[i + 1];
+            }
+            else {
+                start = Math.min(start, covered[i]);
+                end = Math.max(end, covered[i + 1]);
+            }
+        }
+        if (!added) {
+            result[n++] = start;
+            result[n++] = end;
+        }
+        int[] trimmed = new int[n];
+        System.arraycopy(result, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    private static boolean contains(int[] intervals, int index) {
+        for (int i = 0; i < intervals.length; i += 2) {
+            if (index >= intervals[i] && index < intervals[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Text that was looked up.
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Number of tiers, not counting infix and fuzzy matches.
+     */
+    public int getTierCount() {
+        return tiers.length;
+    }
+
+    /**
+     * Number of matches in <code>tier</code> that are not in a stronger
+     * tier.
+     */
+    public int getCount(int tier) {
+        return tierCounts[tier];
+    }
+
+    /**
+     * Number of matches in all tiers, without infix and fuzzy matches.
+     */
+    public int getRangeCount() {
+        return rangeCount;
+    }
+
+    /**
+     * Number of all matches, finds infix and fuzzy matches if that hasn't
+     * been done yet.
+     */
+    public int size() {
+        return rangeCount + extra().size();
+    }
+
+    /**
+     * Whether the lookup was cancelled or ran out of time before all
+     * matches were found.
+     */
+    public synchronized boolean isIncomplete() {
+        return incomplete;
+    }
+
+    private synchronized List<Entry> extra() {
+        if (extra != null) {
+            return extra;
+        }
+        extra = new ArrayList<Entry>();
+        if (incomplete) {
+            return extra;
+        }
+        try {
+            if (infix) {
+                for (int v = 0; v < volumes.size(); v++) {
+                    int[] covered = new int[0];
+                    for (int t = 0; t < tiers.length; t++) {
+                        int[] tierIntervals = intervals[t][v];
+                        for (int i = 0; i < tierIntervals.length; i += 2) {
+                            covered = union(covered, new int[] {tierIntervals[i], tierIntervals[i + 1]});
+                        }
+                    }
+                    InfixMatches matches = new InfixMatches(volumes.get(v), word, token);
+                    RedirectTable table = redirects[v];
+                    int count = 0;
+                    while (matches.hasNext() && count <= MatchIterator.MAX_FROM_VOL) {
+                        int index = matches.nextIndex();
+                        boolean skip = contains(covered, index)
+                                || (table != null && table.isRedirect(index));
+                        Entry entry = matches.next();
+                        if (!skip) {
+                            extra.add(entry);
+                            count++;
+                        }
+                    }
+                }
+            }
+            if (fuzzy && rangeCount == 0 && extra.isEmpty()) {
+                FuzzyMatches matches = new FuzzyMatches(volumes, word, token);
+                incomplete = matches.truncated;
+                extra.addAll(matches.entries);
+            }
+        }
+        catch (CancellationException e) {
+            incomplete = true;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return extra;
+    }
+
+    /**
+     * Match at <code>position</code>, with the lookup section.
+     */
+    public Entry get(int position) {
+        if (position >= rangeCount) {
+            return extra().get(position - rangeCount);
+        }
+        Position p = getPosition(position);
+        Entry entry = volumes.get(p.volume).get(p.index);
+        Entry result = new Entry(entry.volumeId, entry.title, entry.articlePointer);
+        result.section = word.section;
+        return result;
+    }
+
+    /**
+     * Up to <code>count</code> matches starting at <code>offset</code>.
+     */
+    public List<Entry> getPage(int offset, int count) {
+        int end = Math.min(offset + count, size());
+        List<Entry> page = new ArrayList<Entry>(Math.max(0, end - offset));
+        for (int i = offset; i < end; i++) {
+            page.add(get(i));
+        }
+        return page;
+    }
+
+    /**
+     * Tier, volume and index of the match at <code>position</code>, which
+     * must be less than {@link #getRangeCount()}.
+     */
+    private Position getPosition(int position) {
+        if (position < 0 || position >= rangeCount) {
+            throw new IndexOutOfBoundsException(String.valueOf(position));
+        }
+        int lo = 0;
+        int hi = ends.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= position) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        int tier = lo / volumes.size();
+        int volume = lo % volumes.size();
+        int remaining = position - offsets[tier][volume];
+        int[] tierIntervals = intervals[tier][volume];
+        for (int i = 0; i < tierIntervals.length; i += 2) {
+            int length = length(tier, volume, tierIntervals[i], tierIntervals[i + 1]);
+            if (remaining < length) {
+                return new Position(tier, volume, index(tier, volume, tierIntervals[i], remaining));
+            }
+            remaining -= length;
+        }
+        throw new IllegalStateException("Position " + position + " not found");
+    }
+}
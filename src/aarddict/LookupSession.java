@@ -0,0 +1,95 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers candidate ranges of recent queries so that consecutive
+ * lookups of a word being typed don't search whole volumes. Titles that
+ * start with a word also start with any of its prefixes, so a query is
+ * searched within the range of its longest remembered prefix: typing
+ * another letter narrows the previous range, backspace goes back to a
+ * wider one remembered earlier. Only ranges found with an
+ * {@link EntryStartComparator} have this property, ranges for other
+ * comparators are not kept.
+ */
+public final class LookupSession {
+
+    final static int MAX_QUERIES = 32;
+
+    private Comparator<Entry> comparator;
+
+    @SuppressWarnings("serial")
+    private final Map<String, Map<Volume, int[]>> ranges = new LinkedHashMap<String, Map<Volume, int[]>>(
+            MAX_QUERIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<Volume, int[]>> eldest) {
+            return size() > MAX_QUERIES;
+        }
+    };
+
+    /**
+     * Range of <code>volume</code> that contains all titles starting with
+     * <code>word</code>, or <code>null</code> if no prefix of it has been
+     * looked up.
+     */
+    synchronized int[] bounds(Volume volume, String word, Comparator<Entry> c) {
+        if (c != comparator) {
+            return null;
+        }
+        int[] best = null;
+        int bestLength = -1;
+        for (Map.Entry<String, Map<Volume, int[]>> e : ranges.entrySet()) {
+            String prefix = e.getKey();
+            if (prefix.length() > bestLength && word.startsWith(prefix)) {
+                int[] range = e.getValue().get(volume);
+                if (range != null) {
+                    best = range;
+                    bestLength = prefix.length();
+                }
+            }
+        }
+        return best;
+    }
+
+    synchronized void remember(Volume volume, String word, Comparator<Entry> c, int lo, int hi) {
+        if (!(c instanceof EntryStartComparator)) {
+            return;
+        }
+        if (c != comparator) {
+            ranges.clear();
+            comparator = c;
+        }
+        Map<Volume, int[]> volumeRanges = ranges.get(word);
+        if (volumeRanges == null) {
+            volumeRanges = new HashMap<Volume, int[]>();
+            ranges.put(word, volumeRanges);
+        }
+        volumeRanges.put(volume, new int[] {lo, hi});
+    }
+
+    /**
+     * Forgets all ranges, must be called when volumes are closed.
+     */
+    public synchronized void clear() {
+        ranges.clear();
+        comparator = null;
+    }
+}
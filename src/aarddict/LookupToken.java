@@ -0,0 +1,78 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Stops a lookup when it is cancelled or when its time budget runs out.
+ * Searches check the token between index reads, so a superseded lookup
+ * gives up after at most one more read.
+ */
+public final class LookupToken {
+
+    /**
+     * Token for lookups that run to completion.
+     */
+    final static LookupToken NONE = new LookupToken(0, false);
+
+    private final long       deadline;
+    private final boolean    cancellable;
+    private volatile boolean cancelled;
+
+    public LookupToken() {
+        this(0);
+    }
+
+    /**
+     * @param budget time budget in milliseconds, 0 for no limit
+     */
+    public LookupToken(long budget) {
+        this(budget > 0 ? System.currentTimeMillis() + budget : 0, true);
+    }
+
+    private LookupToken(long deadline, boolean cancellable) {
+        this.deadline = deadline;
+        this.cancellable = cancellable;
+    }
+
+    public void cancel() {
+        if (cancellable) {
+            cancelled = true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isExpired() {
+        return deadline != 0 && System.currentTimeMillis() >= deadline;
+    }
+
+    public boolean isStopped() {
+        return cancelled || isExpired();
+    }
+
+    void check() {
+        if (cancelled) {
+            throw new CancellationException("Lookup cancelled");
+        }
+        if (isExpired()) {
+            throw new CancellationException("Lookup time budget exceeded");
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.IOException;
+
+/**
+ * LZ4 frame format decoder. All blocks of a frame are decoded into one
+ * output buffer, so linked blocks can refer back into previous ones.
+ * Header, block and content checksums are verified when the frame has
+ * them, and so is the content size. Malformed or truncated data fails
+ * with an {@link IOException}, never reads past the given range.
+ */
+final class Lz4Codec extends Codec {
+
+    private final static int MAGIC           = 0x184D2204;
+    private final static int SKIPPABLE_MAGIC = 0x184D2A50;
+    private final static int MIN_MATCH       = 4;
+
+    private final static int FLAG_BLOCK_INDEPENDENCE = 0x20;
+    private final static int FLAG_BLOCK_CHECKSUM     = 0x10;
+    private final static int FLAG_CONTENT_SIZE       = 0x08;
+    private final static int FLAG_CONTENT_CHECKSUM   = 0x04;
+    private final static int FLAG_DICT_ID            = 0x01;
+
+    private final static int PRIME1 = 0x9E3779B1;
+    private final static int PRIME2 = 0x85EBCA77;
+    private final static int PRIME3 = 0xC2B2AE3D;
+    private final static int PRIME4 = 0x27D4EB2F;
+    private final static int PRIME5 = 0x165667B1;
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    private static int readIntLE(byte[] data, int pos) {
+        return (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8)
+                | ((data[pos + 2] & 0xff) << 16) | ((data[pos + 3] & 0xff) << 24);
+    }
+
+    private static void require(int pos, int count, int end) throws IOException {
+        if (count < 0 || pos > end - count) {
+            throw new IOException("Truncated lz4 data");
+        }
+    }
+
+    @Override
+    public boolean matches(byte[] data, int offset, int length) {
+        return length >= 4 && readIntLE(data, offset) == MAGIC;
+    }
+
+    @Override
+    protected void decode(byte[] data, int offset, int length, Buffer out) throws IOException {
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            require(pos, 4, end);
+            int magic = readIntLE(data, pos);
+            pos += 4;
+            if ((magic & 0xFFFFFFF0) == SKIPPABLE_MAGIC) {
+                require(pos, 4, end);
+                int skip = readIntLE(data, pos);
+                pos += 4;
+                require(pos, skip, end);
+                pos += skip;
+                continue;
+            }
+            if (magic != MAGIC) {
+                throw new IOException("Invalid lz4 frame magic " + Integer.toHexString(magic));
+            }
+            pos = decodeFrame(data, pos, end, out);
+        }
+    }
+
+    /**
+     * Decodes the frame whose descriptor starts at <code>pos</code> and
+     * returns the position after it.
+     */
+    private static int decodeFrame(byte[] data, int pos, int end, Buffer out) throws IOException {
+        require(pos, 2, end);
+        int descriptor = pos;
+        int flags = data[pos] & 0xff;
+        if ((flags >> 6) != 1) {
+            throw new IOException("Unsupported lz4 frame version");
+        }
+        if ((flags & FLAG_DICT_ID) != 0) {
+            throw new IOException("lz4 frames with a dictionary are not supported");
+        }
+        int maxBlockSizeId = (data[pos + 1] >> 4) & 0x07;
+        if (maxBlockSizeId < 4) {
+            throw new IOException("Invalid lz4 block maximum size " + maxBlockSizeId);
+        }
+        int maxBlockSize = 1 << (8 + 2 * maxBlockSizeId);
+        pos += 2;
+        long contentSize = -1;
+        if ((flags & FLAG_CONTENT_SIZE) != 0) {
+            require(pos, 8, end);
+            contentSize = (readIntLE(data, pos) & 0xFFFFFFFFL)
+                    | ((long)readIntLE(data, pos + 4) << 32);
+            pos += 8;
+        }
+        require(pos, 1, end);
+        int headerChecksum = (xxh32(data, descriptor, pos - descriptor, 0) >> 8) & 0xff;
+        if ((data[pos] & 0xff) != headerChecksum) {
+            throw new IOException("lz4 frame header checksum mismatch");
+        }
+        pos += 1;
+        int frameStart = out.length;
+        while (true) {
+            require(pos, 4, end);
+            int blockSize = readIntLE(data, pos);
+            pos += 4;
+            if (blockSize == 0) {
+                break;
+            }
+            boolean uncompressed = (blockSize & 0x80000000) != 0;
+            blockSize &= 0x7FFFFFFF;
+            if (blockSize > maxBlockSize) {
+                throw new IOException("lz4 block of " + blockSize + " bytes exceeds "
+                        + maxBlockSize);
+            }
+            require(pos, blockSize, end);
+            if ((flags & FLAG_BLOCK_CHECKSUM) != 0) {
+                require(pos + blockSize, 4, end);
+                if (readIntLE(data, pos + blockSize) != xxh32(data, pos, blockSize, 0)) {
+                    throw new IOException("lz4 block checksum mismatch");
+                }
+            }
+            if (uncompressed) {
+                out.ensureCapacity(out.length + blockSize);
+                System.arraycopy(data, pos, out.data, out.length, blockSize);
+                out.length += blockSize;
+            }
+            else {
+                // independent blocks can't refer back into previous ones
+                int windowStart = (flags & FLAG_BLOCK_INDEPENDENCE) != 0 ? out.length : frameStart;
+                decodeBlock(data, pos, pos + blockSize, out, windowStart);
+            }
+            pos += blockSize;
+            if ((flags & FLAG_BLOCK_CHECKSUM) != 0) {
+                pos += 4;
+            }
+        }
+        int decoded = out.length - frameStart;
+        if (contentSize >= 0 && contentSize != decoded) {
+            throw new IOException("lz4 frame content size " + contentSize + " but "
+                    + decoded + " bytes decoded");
+        }
+        if ((flags & FLAG_CONTENT_CHECKSUM) != 0) {
+            require(pos, 4, end);
+            if (readIntLE(data, pos) != xxh32(out.data, frameStart, decoded, 0)) {
+                throw new IOException("lz4 frame content checksum mismatch");
+            }
+            pos += 4;
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes the block between <code>pos</code> and <code>end</code>.
+     * Matches may refer back to data decoded since <code>windowStart</code>.
+     */
+    static void decodeBlock(byte[] data, int pos, int end, Buffer out, int windowStart)
+            throws IOException {
+        while (pos < end) {
+            int token = data[pos++] & 0xff;
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    require(pos, 1, end);
+                    b = data[pos++] & 0xff;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength < 0 || pos > end - literalLength) {
+                throw new IOException("Invalid lz4 literal length");
+            }
+            out.ensureCapacity(out.length + literalLength);
+            System.arraycopy(data, pos, out.data, out.length, literalLength);
+            out.length += literalLength;
+            pos += literalLength;
+            if (pos == end) {
+                // last sequence has literals only
+                break;
+            }
+            require(pos, 2, end);
+            int matchOffset = (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8);
+            pos += 2;
+            if (matchOffset == 0 || matchOffset > out.length - windowStart) {
+                throw new IOException("Invalid lz4 match offset " + matchOffset);
+            }
+            int matchLength = token & 0x0f;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    require(pos, 1, end);
+                    b = data[pos++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength < 0) {
+                throw new IOException("Invalid lz4 match length");
+            }
+            out.ensureCapacity(out.length + matchLength);
+            byte[] o = out.data;
+            int src = out.length - matchOffset;
+            int dst = out.length;
+            if (matchOffset >= matchLength) {
+                System.arraycopy(o, src, o, dst, matchLength);
+            }
+            else {
+                for (int i = 0; i < matchLength; i++) {
+                    o[dst + i] = o[src + i];
+                }
+            }
+            out.length += matchLength;
+        }
+    }
+
+    /**
+     * 32 bit xxHash of <code>length</code> bytes at <code>offset</code>, the
+     * checksum LZ4 frames use.
+     */
+    static int xxh32(byte[] data, int offset, int length, int seed) {
+        int pos = offset;
+        int end = offset + length;
+        int h;
+        if (length >= 16) {
+            int v1 = seed + PRIME1 + PRIME2;
+            int v2 = seed + PRIME2;
+            int v3 = seed;
+            int v4 = seed - PRIME1;
+            int limit = end - 16;
+            while (pos <= limit) {
+                v1 = Integer.rotateLeft(v1 + readIntLE(data, pos) * PRIME2, 13) * PRIME1;
+                v2 = Integer.rotateLeft(v2 + readIntLE(data, pos + 4) * PRIME2, 13) * PRIME1;
+                v3 = Integer.rotateLeft(v3 + readIntLE(data, pos + 8) * PRIME2, 13) * PRIME1;
+                v4 = Integer.rotateLeft(v4 + readIntLE(data, pos + 12) * PRIME2, 13) * PRIME1;
+                pos += 16;
+            }
+            h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7)
+                    + Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+        }
+        else {
+            h = seed + PRIME5;
+        }
+        h += length;
+        while (pos + 4 <= end) {
+            h = Integer.rotateLeft(h + readIntLE(data, pos) * PRIME3, 17) * PRIME4;
+            pos += 4;
+        }
+        while (pos < end) {
+            h = Integer.rotateLeft(h + (data[pos] & 0xff) * PRIME5, 11) * PRIME1;
+            pos++;
+        }
+        h ^= h >>> 15;
+        h *= PRIME2;
+        h ^= h >>> 13;
+        h *= PRIME3;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,224 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import android.util.Log;
+
+/**
+ * Volume file memory mapped in fixed size windows so that files larger than
+ * a single mapping (and larger than the address space we are willing to
+ * spend at once) can still be read. Windows are mapped on first access.
+ * Each window overlaps the next one by {@link #OVERLAP} bytes, so numbers
+ * and short keys never straddle a window boundary and are decoded with a
+ * single absolute get.
+ * <p>
+ * Only absolute gets and private duplicates of the window buffers are used,
+ * so reads are safe from any number of threads. If a window can't be mapped
+ * (address space exhausted) reads in it fall back to positional channel
+ * reads, which a {@link #cachedView(BlockCache) cached view} serves from
+ * a {@link BlockCache} instead.
+ */
+final class MappedVolumeFile extends ChannelVolumeFile {
+
+    private final static String TAG = MappedVolumeFile.class.getName();
+
+    final static int WINDOW_BITS = 26;
+    final static long WINDOW_SIZE = 1L << WINDOW_BITS;
+    final static long WINDOW_MASK = WINDOW_SIZE - 1;
+    final static int OVERLAP = 1 << 16;
+
+    private final AtomicReferenceArray<ByteBuffer> windows;
+    private volatile boolean                       mappingFailed;
+    private final VolumeFile                       channelReads = new ChannelReads();
+
+    /**
+     * Positional channel reads of this file, for reads outside of mapped
+     * windows.
+     */
+    private final class ChannelReads extends VolumeFile {
+
+        @Override
+        long length() {
+            return MappedVolumeFile.this.length();
+        }
+
+        @Override
+        void read(long position, byte[] dst, int offset, int length) throws IOException {
+            MappedVolumeFile.super.read(position, dst, offset, length);
+        }
+
+        @Override
+        void close() {
+        }
+    }
+
+    /**
+     * This file with reads outside of mapped windows going through a block
+     * cache. Closing it drops its blocks from the cache but leaves the file
+     * open.
+     */
+    private final class CachedView extends VolumeFile {
+
+        private final VolumeFile blocks;
+
+        CachedView(BlockCache cache) {
+            this.blocks = new CachedVolumeFile(channelReads, cache);
+        }
+
+        @Override
+        long length() {
+            return MappedVolumeFile.this.length();
+        }
+
+        @Override
+        int readUnsignedShort(long position) throws IOException {
+            return MappedVolumeFile.this.readUnsignedShort(position, blocks);
+        }
+
+        @Override
+        int readInt(long position) throws IOException {
+            return MappedVolumeFile.this.readInt(position, blocks);
+        }
+
+        @Override
+        long readLong(long position) throws IOException {
+            return MappedVolumeFile.this.readLong(position, blocks);
+        }
+
+        @Override
+        void read(long position, byte[] dst, int offset, int length) throws IOException {
+            MappedVolumeFile.this.read(position, dst, offset, length, blocks);
+        }
+
+        @Override
+        void close() throws IOException {
+            blocks.close();
+        }
+    }
+
+    MappedVolumeFile(File file) throws IOException {
+        super(file);
+        this.windows = new AtomicReferenceArray<ByteBuffer>(
+                (int)((length() + WINDOW_SIZE - 1) >>> WINDOW_BITS));
+    }
+
+    /**
+     * View of this file that reads mapped windows directly and everything
+     * else through <code>cache</code>. Mapped windows are already served
+     * from the page cache, copying them into blocks would only cost memory.
+     */
+    VolumeFile cachedView(BlockCache cache) {
+        return new CachedView(cache);
+    }
+
+    private ByteBuffer window(int index) {
+        ByteBuffer w = windows.get(index);
+        if (w == null && !mappingFailed) {
+            long start = (long)index << WINDOW_BITS;
+            long size = Math.min(WINDOW_SIZE + OVERLAP, length() - start);
+            try {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                if (windows.compareAndSet(index, null, mapped)) {
+                    w = mapped;
+                }
+                else {
+                    w = windows.get(index);
+                }
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Failed to map window " + index + ", falling back to channel reads", e);
+                mappingFailed = true;
+            }
+        }
+        return w;
+    }
+
+    private ByteBuffer windowFor(long position, int length) throws IOException {
+        checkBounds(position, length);
+        return window((int)(position >>> WINDOW_BITS));
+    }
+
+    @Override
+    int readUnsignedShort(long position) throws IOException {
+        return readUnsignedShort(position, channelReads);
+    }
+
+    private int readUnsignedShort(long position, VolumeFile fallback) throws IOException {
+        ByteBuffer w = windowFor(position, 2);
+        if (w == null) {
+            return fallback.readUnsignedShort(position);
+        }
+        return w.getShort((int)(position & WINDOW_MASK)) & 0xffff;
+    }
+
+    @Override
+    int readInt(long position) throws IOException {
+        return readInt(position, channelReads);
+    }
+
+    private int readInt(long position, VolumeFile fallback) throws IOException {
+        ByteBuffer w = windowFor(position, 4);
+        if (w == null) {
+            return fallback.readInt(position);
+        }
+        return w.getInt((int)(position & WINDOW_MASK));
+    }
+
+    @Override
+    long readLong(long position) throws IOException {
+        return readLong(position, channelReads);
+    }
+
+    private long readLong(long position, VolumeFile fallback) throws IOException {
+        ByteBuffer w = windowFor(position, 8);
+        if (w == null) {
+            return fallback.readLong(position);
+        }
+        return w.getLong((int)(position & WINDOW_MASK));
+    }
+
+    @Override
+    void read(long position, byte[] dst, int offset, int length) throws IOException {
+        read(position, dst, offset, length, channelReads);
+    }
+
+    private void read(long position, byte[] dst, int offset, int length, VolumeFile fallback)
+            throws IOException {
+        checkBounds(position, length);
+        while (length > 0) {
+            ByteBuffer w = window((int)(position >>> WINDOW_BITS));
+            if (w == null) {
+                fallback.read(position, dst, offset, length);
+                return;
+            }
+            w = w.duplicate();
+            int windowOffset = (int)(position & WINDOW_MASK);
+            int count = Math.min(length, w.limit() - windowOffset);
+            w.position(windowOffset);
+            w.get(dst, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+}
@@ -17,49 +17,213 @@ package aarddict;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+/**
+ * Matches in all volumes, ordered by tier first and by volume second.
+ * Each volume is searched once and tier iterators are created only when
+ * they are consumed. Given an executor, all volumes are searched in
+ * parallel right away, otherwise each one is searched when its first
+ * tier is reached. Either way results come out in the same order. With
+ * infix matching on, titles containing the word follow as one more tier,
+ * see {@link InfixMatches}. With fuzzy matching on, a word that matches
+ * nothing is looked up approximately, see {@link FuzzyMatches}.
+ */
 public final class MatchIterator implements Iterator<Entry> {
 
     public static int     MAX_FROM_VOL    = 50;
 
     Entry                 next;
     int                   currentVolCount = 0;
-    Set<Entry>            seen            = new HashSet<Entry>();
-    List<Iterator<Entry>> iterators       = new ArrayList<Iterator<Entry>>();
-    
+
+    /**
+     * Volume ordinal and index position of each entry returned, as
+     * <code>ordinal &lt;&lt; 32 | index</code>.
+     */
+    final LongHashSet     seen            = new LongHashSet();
+
+    final Comparator<Entry>[] tiers;
+    final List<Volume>    volumes;
+    final LookupWord      word;
+    final VolumeMatches[] matches;
+    final List<Future<VolumeMatches>> pending;
+    final LookupToken     token;
+    final LookupSession   session;
+    final boolean         infix;
+    final boolean         fuzzy;
+    boolean               fuzzyDone;
+    boolean               incomplete;
+    int                   tier            = 0;
+    int                   volume          = -1;
+    Iterator<Entry>       current;
+
     MatchIterator(Comparator<Entry>[] comparators,
             Iterable<Volume> dictionaries, LookupWord word) {
-        for (Comparator<Entry> c : comparators) {
-            for (Volume vol : dictionaries) {
-                iterators.add(vol.lookup(word, c));
+        this(comparators, dictionaries, word, null, LookupToken.NONE, null, false, false);
+    }
+
+    MatchIterator(final Comparator<Entry>[] comparators,
+            Iterable<Volume> dictionaries, final LookupWord word, ExecutorService executor,
+            final LookupToken token, final LookupSession session, boolean infix, boolean fuzzy) {
+        this.tiers = comparators;
+        this.volumes = new ArrayList<Volume>();
+        for (Volume vol : dictionaries) {
+            volumes.add(vol);
+        }
+        this.word = word;
+        this.token = token;
+        this.session = session;
+        this.infix = infix;
+        this.fuzzy = fuzzy;
+        this.matches = new VolumeMatches[volumes.size()];
+        if (executor != null && volumes.size() > 1) {
+            pending = new ArrayList<Future<VolumeMatches>>(volumes.size());
+            for (final Volume vol : volumes) {
+                pending.add(executor.submit(new Callable<VolumeMatches>() {
+                    public VolumeMatches call() {
+                        return new VolumeMatches(vol, word, comparators, token, session);
+                    }
+                }));
             }
         }
+        else {
+            pending = null;
+        }
         prepareNext();
     }
 
+    private VolumeMatches matches(int i) {
+        if (matches[i] == null) {
+            if (pending == null) {
+                matches[i] = new VolumeMatches(volumes.get(i), word, tiers, token, session);
+            }
+            else {
+                try {
+                    matches[i] = pending.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Interrupted while waiting for lookup results");
+                }
+            }
+        }
+        return matches[i];
+    }
+
+    /**
+     * Stops searching volumes that have not been searched yet. Matches
+     * found so far can still be consumed.
+     */
+    public void cancel() {
+        if (pending != null) {
+            for (Future<VolumeMatches> f : pending) {
+                f.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Whether the lookup was cancelled or ran out of time before all
+     * matches were found. Matches returned so far are still valid.
+     */
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    private void stop() {
+        incomplete = true;
+        current = null;
+        tier = tiers.length + 1;
+        cancel();
+    }
+
+    private boolean nextIterator() {
+        currentVolCount = 0;
+        volume++;
+        if (volume == volumes.size()) {
+            volume = 0;
+            tier++;
+        }
+        int tierCount = infix ? tiers.length + 1 : tiers.length;
+        if (tier >= tierCount || volumes.isEmpty()) {
+            current = fuzzyMatches();
+            return current != null;
+        }
+        try {
+            if (tier < tiers.length) {
+                current = matches(volume).iterator(tier);
+            }
+            else {
+                current = new InfixMatches(volumes.get(volume), word, token);
+            }
+        }
+        catch (CancellationException e) {
+            stop();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Approximate matches if the word didn't match anything, searched
+     * once after all tiers.
+     */
+    private Iterator<Entry> fuzzyMatches() {
+        if (!fuzzy || fuzzyDone || incomplete || !seen.isEmpty()) {
+            return null;
+        }
+        fuzzyDone = true;
+        try {
+            FuzzyMatches result = new FuzzyMatches(volumes, word, token);
+            incomplete = result.truncated;
+            return result.entries.iterator();
+        }
+        catch (CancellationException e) {
+            stop();
+            return null;
+        }
+    }
+
     private void prepareNext() {
-        if (!iterators.isEmpty()) {
-            Iterator<Entry> i = iterators.get(0);
+        next = null;
+        while (current != null || nextIterator()) {
+            Iterator<Entry> i = current;
             if (i.hasNext() && currentVolCount <= MAX_FROM_VOL) {
-                next = i.next();
-                if (!seen.contains(next)) {
-                    seen.add(next);
+                // fuzzy matches come from all volumes at once and are
+                // unique already, only tier and infix matches repeat
+                long key = -1;
+                if (i instanceof IndexIterator) {
+                    key = ((long)volume << 32) | ((IndexIterator)i).nextIndex();
+                }
+                Entry candidate;
+                try {
+                    candidate = i.next();
+                }
+                catch (CancellationException e) {
+                    stop();
+                    return;
+                }
+                if (key == -1 || seen.add(key)) {
                     currentVolCount++;
-                } else {
-                    next = null;
-                    prepareNext();
+                    next = candidate;
+                    return;
                 }
             } else {
-                currentVolCount = 0;
-                iterators.remove(0);
-                prepareNext();
+                current = null;
             }
-        } else {
-            next = null;
         }
     }
 
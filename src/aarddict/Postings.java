@@ -0,0 +1,125 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Sorted lists of non-negative ints stored as differences between
+ * consecutive values, each written as a varint: 7 bits per byte, low
+ * bits first, high bit set on all but the last byte.
+ */
+final class Postings {
+
+    private Postings() {
+    }
+
+    /**
+     * Keeps track of the number of bytes written, which is the offset of
+     * the next postings list.
+     */
+    final static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Writes <code>values[off..off+len)</code>, which must be ascending,
+     * as differences from <code>previous</code> and from each other.
+     */
+    static void write(OutputStream out, int previous, int[] values, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            writeVarint(out, values[i] - previous);
+            previous = values[i];
+        }
+    }
+
+    /**
+     * Decodes a whole list written with <code>previous</code> of 0.
+     */
+    static int[] decode(byte[] data, int off, int len) throws IOException {
+        int[] result = new int[Math.max(4, len)];
+        int count = 0;
+        int value = 0;
+        int end = off + len;
+        int pos = off;
+        while (pos < end) {
+            int delta = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (pos == end || shift > 28) {
+                    throw new IOException("Malformed postings");
+                }
+                b = data[pos++];
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            }
+            while ((b & 0x80) != 0);
+            value += delta;
+            result[count++] = value;
+        }
+        if (count == result.length) {
+            return result;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+}
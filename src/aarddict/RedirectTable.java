@@ -0,0 +1,596 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+
+/**
+ * Sidecar file with the final target of every redirect article in a
+ * volume and a bit per title telling whether its article is a redirect,
+ * so that result lists can leave redirects out without reading articles.
+ * Targets are resolved the way {@link Library#redirect} resolves
+ * them, limited to what doesn't depend on other volumes: a redirect is
+ * resolved if each link of its chain has an exact match in this volume
+ * and no interwiki name space. Chains are followed when the table is
+ * built, chains that are too long or loop are marked so.
+ * <p>
+ * Layout: magic, version, volume sha1sum, title count, redirect count,
+ * the bits as longs, records sorted by article pointer (pointer, target
+ * index position, number of redirects followed, section offset) and the
+ * sections.
+ * <p>
+ * Articles are read in segments of {@link #SEGMENT_SIZE} titles which
+ * are written to separate files first, so a build that was interrupted
+ * resumes from the last complete segment.
+ */
+final class RedirectTable {
+
+    private final static String TAG = RedirectTable.class.getName();
+
+    private final static int MAGIC         = 0x61747264;
+    private final static int SEGMENT_MAGIC = 0x61747273;
+    private final static int VERSION       = 3;
+    private final static int HEADER_SIZE   = 4 + 4 + 40 + 4 + 4;
+    private final static int RECORD_SIZE   = 8 + 4 + 4 + 4;
+
+    final static int SEGMENT_SIZE = 1 << 15;
+
+    /**
+     * Chains longer than this are recorded as loops.
+     */
+    final static int MAX_DEPTH = 32;
+
+    private final static int UNRESOLVED = -1;
+    private final static int LOOP       = -2;
+
+    /**
+     * Resolved redirect: title the chain ends at and section of the last
+     * link in the chain that has one.
+     */
+    final static class Target {
+
+        final int    index;
+        final int    depth;
+        final String section;
+
+        Target(int index, int depth, String section) {
+            this.index = index;
+            this.depth = depth;
+            this.section = section;
+        }
+
+        /**
+         * Whether the chain loops or is longer than {@link #MAX_DEPTH}.
+         */
+        boolean isLoop() {
+            return index == LOOP;
+        }
+    }
+
+    private final VolumeFile file;
+    final int                count;
+    private final int        redirectCount;
+    private final long       recordsStart;
+    private final long       sectionsStart;
+
+    private RedirectTable(VolumeFile file, int count, int redirectCount) {
+        this.file = file;
+        this.count = count;
+        this.redirectCount = redirectCount;
+        this.recordsStart = HEADER_SIZE + 8L * ((count + 63) / 64);
+        this.sectionsStart = recordsStart + (long)RECORD_SIZE * redirectCount;
+    }
+
+    /**
+     * Opens redirect table file for a volume, returns <code>null</code> if
+     * it was built for a different volume.
+     */
+    static RedirectTable open(File f, String sha1sum, int count) throws IOException {
+        VolumeFile file = new MappedVolumeFile(f);
+        if (file.length() < HEADER_SIZE
+                || file.readInt(0) != MAGIC
+                || file.readInt(4) != VERSION
+                || !sha1sum.equals(file.readUTF8(8, 40))
+                || file.readInt(48) != count) {
+            file.close();
+            return null;
+        }
+        return new RedirectTable(file, count, file.readInt(52));
+    }
+
+    private long bits(int word) throws IOException {
+        return file.readLong(HEADER_SIZE + 8L * word);
+    }
+
+    /**
+     * Whether the article of the title at <code>index</code> is a
+     * redirect.
+     */
+    boolean isRedirect(int index) throws IOException {
+        return (bits(index >>> 6) & (1L << (index & 63))) != 0;
+    }
+
+    /**
+     * Number of titles in <code>[from, to)</code> whose article is a
+     * redirect.
+     */
+    int countRedirects(int from, int to) throws IOException {
+        int result = 0;
+        while (from < to) {
+            int word = from >>> 6;
+            int end = Math.min(to, (word + 1) << 6);
+            result += Long.bitCount(bits(word) & mask(from, end));
+            from = end;
+        }
+        return result;
+    }
+
+    /**
+     * Index position of the <code>n</code>th title, counting from zero, at
+     * or after <code>from</code> whose article is not a redirect, or
+     * {@link #count} if there aren't that many.
+     */
+    int nonRedirect(int from, int n) throws IOException {
+        while (from < count) {
+            int word = from >>> 6;
+            int end = Math.min(count, (word + 1) << 6);
+            long mask = mask(from, end);
+            long other = ~bits(word) & mask;
+            int found = Long.bitCount(other);
+            if (n < found) {
+                for (int i = 0; i < n; i++) {
+                    other &= other - 1;
+                }
+                return (word << 6) + Long.numberOfTrailingZeros(other);
+            }
+            n -= found;
+            from = end;
+        }
+        return count;
+    }
+
+    /**
+     * Bits of positions <code>[from, to)</code> within the word of
+     * <code>from</code>, <code>to</code> being at most the start of the
+     * next word.
+     */
+    private static long mask(int from, int to) {
+        int length = to - from;
+        long bits = length == 64 ? -1L : (1L << length) - 1;
+        return bits << (from & 63);
+    }
+
+    /**
+     * Target of the redirect article at <code>pointer</code>, or
+     * <code>null</code> if it isn't a redirect or couldn't be resolved
+     * within the volume.
+     */
+    Target get(long pointer) throws IOException {
+        int lo = 0;
+        int hi = redirectCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long record = recordsStart + (long)RECORD_SIZE * mid;
+            long midPointer = file.readLong(record);
+            if (midPointer < pointer) {
+                lo = mid + 1;
+            }
+            else if (midPointer > pointer) {
+                hi = mid;
+            }
+            else {
+                int index = file.readInt(record + 8);
+                if (index == UNRESOLVED) {
+                    return null;
+                }
+                int depth = file.readInt(record + 12);
+                int sectionOffset = file.readInt(record + 16);
+                String section = null;
+                if (sectionOffset != -1) {
+                    long position = sectionsStart + sectionOffset;
+                    section = file.readUTF8(position + 4, file.readInt(position));
+                }
+                return new Target(index, depth, section);
+            }
+        }
+        return null;
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    private static File segmentFile(File target, int segment) {
+        return new File(target.getParentFile(), target.getName() + "." + segment + ".seg");
+    }
+
+    private static boolean isSegmentValid(File f, String sha1sum, int start, int end) {
+        if (!f.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64));
+            try {
+                byte[] sha1 = new byte[40];
+                if (in.readInt() != SEGMENT_MAGIC || in.readInt() != VERSION) {
+                    return false;
+                }
+                in.readFully(sha1);
+                return sha1sum.equals(Volume.utf8(sha1)) && in.readInt() == start && in.readInt() == end;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads articles of titles in <code>[start, end)</code> and writes a
+     * segment file: positions of titles whose article is a redirect, then
+     * the redirects sorted by article pointer with their link.
+     */
+    private static void buildSegment(Volume volume, File f, int start, int end, LookupToken token)
+            throws IOException {
+        Map<Long, String> links = new HashMap<Long, String>();
+        Set<Long> checked = new HashSet<Long>();
+        int[] positions = new int[end - start];
+        int positionCount = 0;
+        for (int i = start; i < end; i++) {
+            token.check();
+            long pointer = volume.get(i).articlePointer;
+            if (checked.add(pointer)) {
+                Article article = volume.decodeArticle(pointer, true);
+                if (article.isRedirect()) {
+                    links.put(pointer, article.getRedirect());
+                }
+            }
+            if (links.containsKey(pointer)) {
+                positions[positionCount++] = i;
+            }
+        }
+        long[] pointers = new long[links.size()];
+        int n = 0;
+        for (Long pointer : links.keySet()) {
+            pointers[n++] = pointer;
+        }
+        Arrays.sort(pointers);
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(VERSION);
+            out.write(volume.getId().getBytes("UTF-8"));
+            out.writeInt(start);
+            out.writeInt(end);
+            out.writeInt(positionCount);
+            Postings.write(out, 0, positions, 0, positionCount);
+            out.writeInt(pointers.length);
+            for (long pointer : pointers) {
+                out.writeLong(pointer);
+                out.writeUTF(links.get(pointer));
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp);
+        }
+    }
+
+    private final static class Segment {
+
+        final DataInputStream in;
+        int                   remaining;
+        long                  pointer;
+        String                link;
+
+        Segment(File f, long[] bits) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+            in.skipBytes(4 + 4 + 40 + 4 + 4);
+            int positionCount = in.readInt();
+            int position = 0;
+            for (int i = 0; i < positionCount; i++) {
+                position += Postings.readVarint(in);
+                bits[position >>> 6] |= 1L << (position & 63);
+            }
+            remaining = in.readInt();
+            advance();
+        }
+
+        void advance() throws IOException {
+            if (remaining-- > 0) {
+                pointer = in.readLong();
+                link = in.readUTF();
+            }
+            else {
+                pointer = Long.MAX_VALUE;
+                link = null;
+            }
+        }
+    }
+
+    /**
+     * Reads articles of <code>volume</code> segment by segment, skipping
+     * segments built before, then merges the segments and resolves the
+     * redirects into <code>target</code>. Stops with CancellationException
+     * when <code>token</code> is cancelled, keeping the complete segments.
+     */
+    static void build(Volume volume, File target, LookupToken token) throws IOException {
+        long t0 = System.currentTimeMillis();
+        int count = volume.size();
+        int segmentCount = (count + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        String sha1sum = volume.getId();
+        int built = 0;
+        for (int s = 0; s < segmentCount; s++) {
+            int start = s * SEGMENT_SIZE;
+            int end = Math.min(count, start + SEGMENT_SIZE);
+            File f = segmentFile(target, s);
+            if (!isSegmentValid(f, sha1sum, start, end)) {
+                buildSegment(volume, f, start, end, token);
+                built++;
+            }
+        }
+        File dir = target.getParentFile();
+        String prefix = target.getName() + ".";
+        File recordsFile = new File(dir, prefix + "records.tmp");
+        File linksFile = new File(dir, prefix + "links.tmp");
+        try {
+            long[] bits = new long[(count + 63) / 64];
+            int redirectCount = merge(target, segmentCount, bits, recordsFile, linksFile);
+            resolve(volume, target, bits, redirectCount, recordsFile, linksFile, token);
+        }
+        finally {
+            recordsFile.delete();
+            linksFile.delete();
+        }
+        for (int s = 0; s < segmentCount; s++) {
+            segmentFile(target, s).delete();
+        }
+        Log.d(TAG, String.format("Built redirect table for %s (%d of %d segments) in %d",
+                sha1sum, built, segmentCount, System.currentTimeMillis() - t0));
+    }
+
+    /**
+     * Merges redirects of all segments by article pointer into a file of
+     * (pointer, link offset) records and a file of links, sets bits of
+     * redirect titles. Returns the number of redirects.
+     */
+    private static int merge(File target, int segmentCount, long[] bits, File recordsFile,
+            File linksFile) throws IOException {
+        Segment[] segments = new Segment[segmentCount];
+        int redirectCount = 0;
+        DataOutputStream records = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(recordsFile), 1 << 16));
+        Postings.CountingOutputStream linksOut = new Postings.CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(linksFile), 1 << 16));
+        DataOutputStream links = new DataOutputStream(linksOut);
+        try {
+            for (int s = 0; s < segmentCount; s++) {
+                segments[s] = new Segment(segmentFile(target, s), bits);
+            }
+            while (true) {
+                Segment next = null;
+                for (Segment segment : segments) {
+                    if (segment.pointer != Long.MAX_VALUE
+                            && (next == null || segment.pointer < next.pointer)) {
+                        next = segment;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                long pointer = next.pointer;
+                records.writeLong(pointer);
+                records.writeLong(linksOut.count);
+                writeString(links, next.link);
+                redirectCount++;
+                // titles in different segments may share an article
+                for (Segment segment : segments) {
+                    while (segment.pointer == pointer) {
+                        segment.advance();
+                    }
+                }
+            }
+        }
+        finally {
+            records.close();
+            links.close();
+            for (Segment segment : segments) {
+                if (segment != null) {
+                    segment.in.close();
+                }
+            }
+        }
+        return redirectCount;
+    }
+
+    /**
+     * Follows redirect chains and writes the table. Each link is looked up
+     * on its own, and a link without a section keeps the section of the
+     * link before it, as {@link Library#redirect} does.
+     */
+    private static void resolve(Volume volume, File target, long[] bits, int redirectCount,
+            File recordsFile, File linksFile, LookupToken token) throws IOException {
+        File dir = target.getParentFile();
+        String prefix = target.getName() + ".";
+        File sectionsFile = new File(dir, prefix + "sections.tmp");
+        File tmp = new File(dir, prefix + "tmp");
+        VolumeFile records = new MappedVolumeFile(recordsFile);
+        VolumeFile links = new MappedVolumeFile(linksFile);
+        Map<String, String> interwiki = volume.metadata.getInterwikiMap();
+        int resolved = 0;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            Postings.CountingOutputStream sectionsOut = new Postings.CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(sectionsFile), 1 << 16));
+            DataOutputStream sections = new DataOutputStream(sectionsOut);
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(volume.getId().getBytes("UTF-8"));
+                out.writeInt(volume.size());
+                out.writeInt(redirectCount);
+                for (long b : bits) {
+                    out.writeLong(b);
+                }
+                for (int r = 0; r < redirectCount; r++) {
+                    token.check();
+                    long pointer = records.readLong(16L * r);
+                    String link = link(links, records, r);
+                    int index = UNRESOLVED;
+                    int depth = 0;
+                    String section = null;
+                    while (true) {
+                        if (++depth > MAX_DEPTH) {
+                            index = LOOP;
+                            break;
+                        }
+                        LookupWord word = LookupWord.splitWord(link);
+                        int hop = resolveLink(volume, word, interwiki, token);
+                        if (hop == UNRESOLVED) {
+                            index = UNRESOLVED;
+                            break;
+                        }
+                        index = hop;
+                        if (word.section != null) {
+                            section = word.section;
+                        }
+                        int next = find(records, redirectCount, volume.get(hop).articlePointer);
+                        if (next == -1) {
+                            break;
+                        }
+                        link = link(links, records, next);
+                    }
+                    out.writeLong(pointer);
+                    out.writeInt(index);
+                    out.writeInt(depth);
+                    if (index >= 0 && section != null) {
+                        if (sectionsOut.count > Integer.MAX_VALUE) {
+                            throw new IOException("Redirect sections are too large");
+                        }
+                        out.writeInt((int)sectionsOut.count);
+                        writeString(sections, section);
+                    }
+                    else {
+                        out.writeInt(-1);
+                    }
+                    if (index != UNRESOLVED) {
+                        resolved++;
+                    }
+                }
+                sections.close();
+                byte[] buf = new byte[1 << 16];
+                InputStream in = new FileInputStream(sectionsFile);
+                try {
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        out.write(buf, 0, n);
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+            finally {
+                out.close();
+                sections.close();
+            }
+        }
+        finally {
+            records.close();
+            links.close();
+            sectionsFile.delete();
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp);
+        }
+        Log.d(TAG, String.format("Resolved %d of %d redirects in %s",
+                resolved, redirectCount, volume.getId()));
+    }
+
+    private static String link(VolumeFile links, VolumeFile records, int record) throws IOException {
+        long offset = records.readLong(16L * record + 8);
+        return links.readUTF8(offset + 4, links.readInt(offset));
+    }
+
+    /**
+     * Writes length and UTF-8 bytes of <code>s</code>. Unlike
+     * <code>writeUTF</code> this is standard UTF-8, as
+     * {@link VolumeFile#readUTF8} expects.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int find(VolumeFile records, int redirectCount, long pointer) throws IOException {
+        int lo = 0;
+        int hi = redirectCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long midPointer = records.readLong(16L * mid);
+            if (midPointer < pointer) {
+                lo = mid + 1;
+            }
+            else if (midPointer > pointer) {
+                hi = mid;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index position of the title a link in this volume leads to, if
+     * {@link Library#followLink} would pick it whatever other volumes are
+     * open: the link has no interwiki name space and the title is an exact
+     * match. Returns {@link #UNRESOLVED} otherwise.
+     */
+    private static int resolveLink(Volume volume, LookupWord word, Map<String, String> interwiki,
+            LookupToken token) {
+        if (word.nameSpace != null && interwiki.get(word.nameSpace) != null) {
+            return UNRESOLVED;
+        }
+        word.mergeNameSpace();
+        VolumeMatches matches = new VolumeMatches(volume, word, Library.linkComparators(word), token);
+        IndexIterator exact = matches.iterator(0);
+        return exact.hasNext() ? exact.nextIndex() : UNRESOLVED;
+    }
+}
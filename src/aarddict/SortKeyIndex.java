@@ -0,0 +1,295 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.util.Log;
+
+import com.ibm.icu.text.Collator;
+import com.ibm.icu.text.RawCollationKey;
+
+/**
+ * Sidecar file with ICU sort keys of all titles of a volume, in index
+ * order, at primary, secondary and tertiary strength. Full title lookups
+ * binary search it with plain byte comparisons instead of collating
+ * decoded titles.
+ * <p>
+ * Layout: magic, version, volume sha1sum, title count and the offset of
+ * the section for each strength. A section is a table of
+ * <code>count + 1</code> key offsets followed by the key bytes.
+ */
+final class SortKeyIndex {
+
+    private final static String TAG = SortKeyIndex.class.getName();
+
+    private final static int MAGIC       = 0x61736b69;
+    private final static int VERSION     = 1;
+    private final static int HEADER_SIZE = 4 + 4 + 40 + 4 + 8 * 3;
+
+    final static int STRENGTHS = 3;
+
+    private final VolumeFile file;
+    private final int        count;
+    private final long[]     sections = new long[STRENGTHS];
+
+    private SortKeyIndex(VolumeFile file, int count) {
+        this.file = file;
+        this.count = count;
+    }
+
+    /**
+     * Opens sort key file for a volume, returns <code>null</code> if it
+     * was built for a different volume.
+     */
+    static SortKeyIndex open(File f, String sha1sum, int count) throws IOException {
+        VolumeFile file = new MappedVolumeFile(f);
+        if (file.length() < HEADER_SIZE
+                || file.readInt(0) != MAGIC
+                || file.readInt(4) != VERSION
+                || !sha1sum.equals(file.readUTF8(8, 40))
+                || file.readInt(48) != count) {
+            file.close();
+            return null;
+        }
+        SortKeyIndex result = new SortKeyIndex(file, count);
+        for (int s = 0; s < STRENGTHS; s++) {
+            result.sections[s] = file.readLong(52 + 8 * s);
+        }
+        return result;
+    }
+
+    byte[] key(int strength, int i) throws IOException {
+        long section = sections[strength];
+        long start = file.readUnsignedInt(section + 4L * i);
+        long end = file.readUnsignedInt(section + 4L * (i + 1));
+        return file.readBytes(section + 4L * (count + 1) + start, (int)(end - start));
+    }
+
+    /**
+     * Index of the first title in <code>[lo, hi)</code> whose sort key is
+     * not less than <code>key</code>.
+     */
+    int lowerBound(int strength, byte[] key, int lo, int hi, LookupToken token) throws IOException {
+        while (lo < hi) {
+            token.check();
+            int mid = (lo + hi) >>> 1;
+            if (compare(key(strength, mid), key) < 0) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    static int compare(byte[] k1, byte[] k2) {
+        int length = Math.min(k1.length, k2.length);
+        for (int i = 0; i < length; i++) {
+            int b1 = k1[i] & 0xff;
+            int b2 = k2[i] & 0xff;
+            if (b1 != b2) {
+                return b1 - b2;
+            }
+        }
+        return k1.length - k2.length;
+    }
+
+    static byte[] sortKey(Collator collator, String s) {
+        RawCollationKey key = collator.getRawCollationKey(s, null);
+        byte[] result = new byte[key.size];
+        System.arraycopy(key.bytes, 0, result, 0, key.size);
+        return result;
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    private final static class Worker extends Thread {
+
+        final Volume      volume;
+        final int         start;
+        final int         end;
+        final File[]      keyFiles     = new File[STRENGTHS];
+        final File[]      lengthFiles  = new File[STRENGTHS];
+        final long[]      totals       = new long[STRENGTHS];
+        Exception         error;
+
+        Worker(Volume volume, int start, int end, File dir, String prefix) {
+            super("SortKeyWorker-" + start);
+            setPriority(Thread.MIN_PRIORITY);
+            this.volume = volume;
+            this.start = start;
+            this.end = end;
+            for (int s = 0; s < STRENGTHS; s++) {
+                keyFiles[s] = new File(dir, prefix + start + "." + s + ".keys");
+                lengthFiles[s] = new File(dir, prefix + start + "." + s + ".len");
+            }
+        }
+
+        @Override
+        public void run() {
+            EntryComparator[] comparators = new EntryComparator[] {
+                    EntryComparators.FULL1, EntryComparators.FULL2, EntryComparators.FULL3 };
+            OutputStream[] keys = new OutputStream[STRENGTHS];
+            DataOutputStream[] lengths = new DataOutputStream[STRENGTHS];
+            try {
+                try {
+                    for (int s = 0; s < STRENGTHS; s++) {
+                        keys[s] = new BufferedOutputStream(new FileOutputStream(keyFiles[s]));
+                        lengths[s] = new DataOutputStream(new BufferedOutputStream(
+                                new FileOutputStream(lengthFiles[s])));
+                    }
+                    RawCollationKey key = new RawCollationKey();
+                    for (int i = start; i < end; i++) {
+                        String title = volume.get(i).title;
+                        for (int s = 0; s < STRENGTHS; s++) {
+                            comparators[s].collator().getRawCollationKey(title, key);
+                            keys[s].write(key.bytes, 0, key.size);
+                            lengths[s].writeInt(key.size);
+                            totals[s] += key.size;
+                        }
+                    }
+                }
+                finally {
+                    for (int s = 0; s < STRENGTHS; s++) {
+                        if (keys[s] != null) {
+                            keys[s].close();
+                        }
+                        if (lengths[s] != null) {
+                            lengths[s].close();
+                        }
+                    }
+                }
+            }
+            catch (Exception e) {
+                error = e;
+            }
+        }
+
+        void deleteFiles() {
+            for (int s = 0; s < STRENGTHS; s++) {
+                keyFiles[s].delete();
+                lengthFiles[s].delete();
+            }
+        }
+    }
+
+    /**
+     * Computes sort keys of all titles of <code>volume</code>, splitting the
+     * index between <code>threadCount</code> workers, and writes them to
+     * <code>target</code>.
+     */
+    static void build(Volume volume, File target, int threadCount) throws IOException, InterruptedException {
+        long t0 = System.currentTimeMillis();
+        int count = volume.size();
+        File dir = target.getParentFile();
+        String prefix = target.getName() + ".";
+        int chunk = Math.max(1, (count + threadCount - 1) / threadCount);
+        int workerCount = (count + chunk - 1) / chunk;
+        Worker[] workers = new Worker[workerCount];
+        try {
+            for (int w = 0; w < workerCount; w++) {
+                workers[w] = new Worker(volume, w * chunk, Math.min(count, (w + 1) * chunk), dir, prefix);
+                workers[w].start();
+            }
+            long[] totals = new long[STRENGTHS];
+            for (Worker worker : workers) {
+                worker.join();
+                if (worker.error != null) {
+                    throw new IOException("Failed to compute sort keys: " + worker.error);
+                }
+                for (int s = 0; s < STRENGTHS; s++) {
+                    totals[s] += worker.totals[s];
+                }
+            }
+            File tmp = new File(dir, prefix + "tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(volume.getId().getBytes("UTF-8"));
+                out.writeInt(count);
+                long section = HEADER_SIZE;
+                for (int s = 0; s < STRENGTHS; s++) {
+                    if (totals[s] > 0xFFFFFFFFL) {
+                        throw new IOException("Sort keys are too large");
+                    }
+                    out.writeLong(section);
+                    section += 4L * (count + 1) + totals[s];
+                }
+                byte[] buf = new byte[1 << 16];
+                for (int s = 0; s < STRENGTHS; s++) {
+                    long offset = 0;
+                    for (Worker worker : workers) {
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                new FileInputStream(worker.lengthFiles[s])));
+                        try {
+                            for (int i = worker.start; i < worker.end; i++) {
+                                out.writeInt((int)offset);
+                                offset += in.readInt();
+                            }
+                        }
+                        finally {
+                            in.close();
+                        }
+                    }
+                    out.writeInt((int)offset);
+                    for (Worker worker : workers) {
+                        InputStream in = new FileInputStream(worker.keyFiles[s]);
+                        try {
+                            int n;
+                            while ((n = in.read(buf)) != -1) {
+                                out.write(buf, 0, n);
+                            }
+                        }
+                        finally {
+                            in.close();
+                        }
+                    }
+                }
+            }
+            finally {
+                out.close();
+            }
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Failed to rename " + tmp);
+            }
+        }
+        finally {
+            for (Worker worker : workers) {
+                if (worker != null) {
+                    worker.join();
+                    worker.deleteFiles();
+                }
+            }
+        }
+        Log.d(TAG, String.format("Built sort keys for %s with %d workers in %d",
+                volume.getId(), workerCount, System.currentTimeMillis() - t0));
+    }
+}
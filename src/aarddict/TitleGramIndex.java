@@ -0,0 +1,547 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import com.ibm.icu.lang.UCharacter;
+import com.ibm.icu.lang.UCharacterCategory;
+import com.ibm.icu.text.Normalizer;
+
+/**
+ * Sidecar file mapping each trigram of normalized titles to the index
+ * positions of titles containing it. Titles are normalized by case
+ * folding and stripping accents and are padded with two NUL characters
+ * on each side, so that even short titles have
+ * trigrams and title starts and ends can be told apart.
+ * <p>
+ * Layout: magic, version, volume sha1sum, title count, trigram count,
+ * sorted trigrams as longs, <code>trigramCount + 1</code> postings
+ * offsets and the postings, see {@link Postings}.
+ * <p>
+ * The index is built in segments of {@link #SEGMENT_SIZE} titles which
+ * are written to separate files first, so a build that was interrupted
+ * resumes from the last complete segment. Segments of all volumes being
+ * built are processed in parallel by a shared pool of threads.
+ */
+final class TitleGramIndex {
+
+    private final static String TAG = TitleGramIndex.class.getName();
+
+    private final static int MAGIC         = 0x61746769;
+    private final static int SEGMENT_MAGIC = 0x61746773;
+    private final static int VERSION       = 1;
+    private final static int HEADER_SIZE   = 4 + 4 + 40 + 4 + 4;
+
+    final static int SEGMENT_BITS = 15;
+    final static int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+    final static char PAD = '\u0000';
+
+    private final VolumeFile file;
+    final int                count;
+    private final int        gramCount;
+    private final long       offsetsStart;
+    private final long       postingsStart;
+
+    private TitleGramIndex(VolumeFile file, int count, int gramCount) {
+        this.file = file;
+        this.count = count;
+        this.gramCount = gramCount;
+        this.offsetsStart = HEADER_SIZE + 8L * gramCount;
+        this.postingsStart = offsetsStart + 4L * (gramCount + 1);
+    }
+
+    /**
+     * Opens trigram file for a volume, returns <code>null</code> if it
+     * was built for a different volume.
+     */
+    static TitleGramIndex open(File f, String sha1sum, int count) throws IOException {
+        VolumeFile file = new MappedVolumeFile(f);
+        if (file.length() < HEADER_SIZE
+                || file.readInt(0) != MAGIC
+                || file.readInt(4) != VERSION
+                || !sha1sum.equals(file.readUTF8(8, 40))
+                || file.readInt(48) != count) {
+            file.close();
+            return null;
+        }
+        return new TitleGramIndex(file, count, file.readInt(52));
+    }
+
+    /**
+     * Position of <code>gram</code> among the sorted trigrams, or -1 if no
+     * title contains it.
+     */
+    private int find(long gram) throws IOException {
+        int lo = 0;
+        int hi = gramCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long midGram = file.readLong(HEADER_SIZE + 8L * mid);
+            if (midGram < gram) {
+                lo = mid + 1;
+            }
+            else if (midGram > gram) {
+                hi = mid;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private long offset(int slot) throws IOException {
+        return file.readUnsignedInt(offsetsStart + 4L * slot);
+    }
+
+    /**
+     * Ascending index positions of titles containing <code>gram</code>.
+     */
+    int[] postings(long gram) throws IOException {
+        int slot = find(gram);
+        if (slot == -1) {
+            return new int[0];
+        }
+        long start = offset(slot);
+        byte[] data = file.readBytes(postingsStart + start, (int)(offset(slot + 1) - start));
+        return Postings.decode(data, 0, data.length);
+    }
+
+    /**
+     * Size in bytes of the encoded postings of <code>gram</code>, which
+     * bounds the number of titles containing it without decoding them.
+     */
+    int postingsSize(long gram) throws IOException {
+        int slot = find(gram);
+        return slot == -1 ? 0 : (int)(offset(slot + 1) - offset(slot));
+    }
+
+    /**
+     * Ascending index positions of titles containing at least
+     * <code>minCount</code> of <code>grams</code>.
+     */
+    int[] candidates(long[] grams, int minCount, LookupToken token) throws IOException {
+        return candidates(grams, minCount, false, token);
+    }
+
+    /**
+     * Index positions of titles containing at least <code>minCount</code>
+     * of <code>grams</code>, titles sharing more of them first, ascending
+     * positions among titles sharing as many.
+     */
+    int[] rankedCandidates(long[] grams, int minCount, LookupToken token) throws IOException {
+        return candidates(grams, minCount, true, token);
+    }
+
+    private int[] candidates(long[] grams, int minCount, boolean ranked, LookupToken token)
+            throws IOException {
+        int[][] lists = new int[grams.length][];
+        int total = 0;
+        for (int i = 0; i < grams.length; i++) {
+            token.check();
+            lists[i] = postings(grams[i]);
+            total += lists[i].length;
+        }
+        int[] all = new int[total];
+        int pos = 0;
+        for (int[] list : lists) {
+            System.arraycopy(list, 0, all, pos, list.length);
+            pos += list.length;
+        }
+        token.check();
+        Arrays.sort(all);
+        int n = 0;
+        int[] counts = ranked ? new int[total] : null;
+        for (int i = 0; i < total;) {
+            int j = i;
+            while (j < total && all[j] == all[i]) {
+                j++;
+            }
+            if (j - i >= minCount) {
+                if (ranked) {
+                    counts[n] = j - i;
+                }
+                all[n++] = all[i];
+            }
+            i = j;
+        }
+        int[] result = new int[n];
+        if (!ranked) {
+            System.arraycopy(all, 0, result, 0, n);
+            return result;
+        }
+        // counting sort by number of shared grams, most first, keeps
+        // ascending positions within each count
+        int[] starts = new int[grams.length + 2];
+        for (int i = 0; i < n; i++) {
+            starts[grams.length - counts[i] + 1]++;
+        }
+        for (int c = 1; c < starts.length; c++) {
+            starts[c] += starts[c - 1];
+        }
+        for (int i = 0; i < n; i++) {
+            result[starts[grams.length - counts[i]]++] = all[i];
+        }
+        return result;
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Folds case and strips accents.
+     */
+    static String normalize(String s) {
+        String decomposed = Normalizer.normalize(UCharacter.foldCase(s, true), Normalizer.NFD);
+        StringBuilder result = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (UCharacter.getType(c) != UCharacterCategory.NON_SPACING_MARK) {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    static long gram(CharSequence s, int i) {
+        return ((long)s.charAt(i) << 32) | ((long)s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * Distinct trigrams of a normalized string in ascending order, with
+     * padding if <code>padded</code> is <code>true</code>.
+     */
+    static long[] grams(String normalized, boolean padded) {
+        CharSequence s = normalized;
+        if (padded) {
+            s = new StringBuilder(normalized.length() + 4).append(PAD).append(PAD)
+                    .append(normalized).append(PAD).append(PAD);
+        }
+        int n = s.length() - 2;
+        if (n <= 0) {
+            return new long[0];
+        }
+        long[] grams = new long[n];
+        for (int i = 0; i < n; i++) {
+            grams[i] = gram(s, i);
+        }
+        Arrays.sort(grams);
+        int distinct = 1;
+        for (int i = 1; i < n; i++) {
+            if (grams[i] != grams[distinct - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        if (distinct == n) {
+            return grams;
+        }
+        long[] result = new long[distinct];
+        System.arraycopy(grams, 0, result, 0, distinct);
+        return result;
+    }
+
+    private static File segmentFile(File target, int segment) {
+        return new File(target.getParentFile(), target.getName() + "." + segment + ".seg");
+    }
+
+    /**
+     * Whether a segment file is complete and was built for this volume.
+     */
+    private static boolean isSegmentValid(File f, String sha1sum, int start, int end) {
+        if (!f.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64));
+            try {
+                byte[] sha1 = new byte[40];
+                if (in.readInt() != SEGMENT_MAGIC) {
+                    return false;
+                }
+                in.readFully(sha1);
+                return sha1sum.equals(Volume.utf8(sha1)) && in.readInt() == start && in.readInt() == end;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes trigrams of titles in <code>[start, end)</code> to a segment
+     * file: per trigram the number of titles and their positions.
+     */
+    private static void buildSegment(Volume volume, File f, int start, int end) throws IOException {
+        long[] pairs = new long[(end - start) * 8];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            long[] grams = grams(normalize(volume.get(i).title), true);
+            if (n + grams.length > pairs.length) {
+                long[] grown = new long[Math.max(pairs.length * 2, n + grams.length)];
+                System.arraycopy(pairs, 0, grown, 0, n);
+                pairs = grown;
+            }
+            for (long gram : grams) {
+                pairs[n++] = (gram << SEGMENT_BITS) | (i - start);
+            }
+        }
+        Arrays.sort(pairs, 0, n);
+        int gramCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || (pairs[i] >>> SEGMENT_BITS) != (pairs[i - 1] >>> SEGMENT_BITS)) {
+                gramCount++;
+            }
+        }
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(SEGMENT_MAGIC);
+            out.write(volume.getId().getBytes("UTF-8"));
+            out.writeInt(start);
+            out.writeInt(end);
+            out.writeInt(gramCount);
+            int[] positions = new int[SEGMENT_SIZE];
+            for (int i = 0; i < n;) {
+                long gram = pairs[i] >>> SEGMENT_BITS;
+                int count = 0;
+                while (i < n && (pairs[i] >>> SEGMENT_BITS) == gram) {
+                    positions[count++] = start + (int)(pairs[i] & (SEGMENT_SIZE - 1));
+                    i++;
+                }
+                out.writeLong(gram);
+                out.writeInt(count);
+                Postings.write(out, 0, positions, 0, count);
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp);
+        }
+    }
+
+    private final static class Segment {
+
+        final DataInputStream in;
+        int                   remaining;
+        long                  gram;
+
+        Segment(File f) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+            in.readInt();
+            in.skipBytes(40 + 4 + 4);
+            remaining = in.readInt();
+            advance();
+        }
+
+        void advance() throws IOException {
+            if (remaining-- > 0) {
+                gram = in.readLong();
+            }
+            else {
+                gram = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Builds segments of all volumes, bounded by the number of processors
+     * so that volumes opened together share the threads instead of each
+     * starting its own.
+     */
+    private final static ExecutorService builders = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TitleGramWorker-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+    /**
+     * Builds missing segments on the shared builder threads and merges all
+     * segments into <code>target</code>.
+     */
+    static void build(final Volume volume, final File target) throws IOException, InterruptedException {
+        long t0 = System.currentTimeMillis();
+        final int count = volume.size();
+        final int segmentCount = (count + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        final String sha1sum = volume.getId();
+        List<Future<Boolean>> segments = new ArrayList<Future<Boolean>>(segmentCount);
+        for (int s = 0; s < segmentCount; s++) {
+            final int start = s * SEGMENT_SIZE;
+            final int end = Math.min(count, start + SEGMENT_SIZE);
+            final File f = segmentFile(target, s);
+            segments.add(builders.submit(new Callable<Boolean>() {
+                public Boolean call() throws IOException {
+                    if (isSegmentValid(f, sha1sum, start, end)) {
+                        return false;
+                    }
+                    buildSegment(volume, f, start, end);
+                    return true;
+                }
+            }));
+        }
+        int built = 0;
+        try {
+            for (Future<Boolean> segment : segments) {
+                if (segment.get()) {
+                    built++;
+                }
+            }
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Failed to build trigrams: " + e.getCause());
+        }
+        finally {
+            for (Future<Boolean> segment : segments) {
+                segment.cancel(false);
+            }
+        }
+        merge(volume, target, segmentCount);
+        for (int s = 0; s < segmentCount; s++) {
+            segmentFile(target, s).delete();
+        }
+        Log.d(TAG, String.format("Built trigrams for %s (%d of %d segments) in %d",
+                sha1sum, built, segmentCount, System.currentTimeMillis() - t0));
+    }
+
+    private static void merge(Volume volume, File target, int segmentCount) throws IOException {
+        File dir = target.getParentFile();
+        String prefix = target.getName() + ".";
+        File gramsFile = new File(dir, prefix + "grams.tmp");
+        File offsetsFile = new File(dir, prefix + "offsets.tmp");
+        File postingsFile = new File(dir, prefix + "postings.tmp");
+        Segment[] segments = new Segment[segmentCount];
+        int gramCount = 0;
+        try {
+            DataOutputStream grams = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(gramsFile)));
+            DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile)));
+            Postings.CountingOutputStream postings = new Postings.CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(postingsFile), 1 << 16));
+            try {
+                for (int s = 0; s < segmentCount; s++) {
+                    segments[s] = new Segment(segmentFile(target, s));
+                }
+                while (true) {
+                    long gram = Long.MAX_VALUE;
+                    for (Segment segment : segments) {
+                        gram = Math.min(gram, segment.gram);
+                    }
+                    if (gram == Long.MAX_VALUE) {
+                        break;
+                    }
+                    if (postings.count > 0xFFFFFFFFL) {
+                        throw new IOException("Trigram postings are too large");
+                    }
+                    grams.writeLong(gram);
+                    offsets.writeInt((int)postings.count);
+                    gramCount++;
+                    int previous = 0;
+                    for (Segment segment : segments) {
+                        if (segment.gram != gram) {
+                            continue;
+                        }
+                        int n = segment.in.readInt();
+                        int value = 0;
+                        for (int i = 0; i < n; i++) {
+                            value += Postings.readVarint(segment.in);
+                            Postings.writeVarint(postings, value - previous);
+                            previous = value;
+                        }
+                        segment.advance();
+                    }
+                }
+                offsets.writeInt((int)postings.count);
+            }
+            finally {
+                grams.close();
+                offsets.close();
+                postings.close();
+                for (Segment segment : segments) {
+                    if (segment != null) {
+                        segment.in.close();
+                    }
+                }
+            }
+            File tmp = new File(dir, prefix + "tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(volume.getId().getBytes("UTF-8"));
+                out.writeInt(volume.size());
+                out.writeInt(gramCount);
+                byte[] buf = new byte[1 << 16];
+                for (File f : new File[] {gramsFile, offsetsFile, postingsFile}) {
+                    InputStream in = new FileInputStream(f);
+                    try {
+                        int n;
+                        while ((n = in.read(buf)) != -1) {
+                            out.write(buf, 0, n);
+                        }
+                    }
+                    finally {
+                        in.close();
+                    }
+                }
+            }
+            finally {
+                out.close();
+            }
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Failed to rename " + tmp);
+            }
+        }
+        finally {
+            gramsFile.delete();
+            offsetsFile.delete();
+            postingsFile.delete();
+        }
+    }
+}
@@ -17,8 +17,6 @@ package aarddict;
 
 import static java.lang.String.format;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -29,17 +27,16 @@ import java.security.NoSuchAlgorithmException;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.WeakHashMap;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.codehaus.jackson.map.ObjectMapper;
 
+import com.ibm.icu.text.Collator;
+
 import android.net.Uri;
 import android.util.Log;
 
@@ -76,14 +73,101 @@ public final class Volume extends AbstractList<Entry> {
 
         private final static String TAG = Volume.class.getName();
 
+    /**
+     * When index1 is loaded into memory: never, in the background on first
+     * lookup, or when the volume is opened. {@link IndexTable#load} decides
+     * the representation based on the index size and available memory.
+     */
+    public enum IndexLoading {
+        NONE, LAZY, EAGER
+    }
+
+    public static IndexLoading indexLoading = IndexLoading.LAZY;
+
+    /**
+     * Every this many titles one is kept in the in-memory key sample.
+     */
+    public static int keySampleInterval = 64;
+
+    /**
+     * Whether to build sort key sidecar files for volumes that don't have
+     * one yet.
+     */
+    public static boolean buildSortKeys = true;
+
+    /**
+     * Whether to build title trigram sidecar files, used by fuzzy lookups,
+     * for volumes that don't have one yet.
+     */
+    public static boolean buildTitleGrams = true;
+
+    /**
+     * Whether to index article text of volumes that don't have a text
+     * index yet. Off by default: this reads every article, which takes
+     * long and the index takes a lot of space for big volumes. Volumes
+     * opened before it is turned on start with
+     * {@link #startTextIndexing()}.
+     */
+    public static boolean buildTextIndex = false;
+
+    /**
+     * Whether to build redirect tables for volumes that don't have one
+     * yet. This reads every article of the volume, but only once and in
+     * the background after the title indexes.
+     */
+    public static boolean buildRedirects = true;
+
+    /**
+     * Articles read together are read with one read if no more than this
+     * many bytes apart, as long as the read stays under
+     * {@link #MAX_ARTICLE_READ}.
+     */
+    static int maxArticleReadGap = 1 << 12;
+
+    private final static int MAX_ARTICLE_READ = 1 << 20;
+
     final static Charset UTF8 = Charset.forName("utf8");
 
+    /**
+     * Compressed bytes of an article, a slice of a read that may cover
+     * several articles.
+     */
+    final static class ArticleBytes {
+
+        final long   pointer;
+        final byte[] data;
+        final int    offset;
+        final int    length;
+
+        ArticleBytes(long pointer, byte[] data, int offset, int length) {
+            this.pointer = pointer;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
     public Metadata  metadata;
     public Header    header;
-    RandomAccessFile file;
+    VolumeFile       file;
+    VolumeFile       indexFile;
+    volatile IndexTable indexTable;
+    volatile KeySample  keySample;
+    volatile SortKeyIndex sortKeys;
+    volatile TitleGramIndex titleGrams;
+    volatile ArticleTextIndex textIndex;
+    volatile RedirectTable redirects;
+    private final LookupToken backgroundToken = new LookupToken();
+    private volatile LookupToken textIndexToken = new LookupToken();
+    private final Object textIndexLock = new Object();
+    private final AtomicBoolean indexLoadStarted = new AtomicBoolean();
+    private final AtomicBoolean backgroundStarted = new AtomicBoolean();
+    private String displayTitle;
+    private String displayTitleWithoutVolume;
     String           sha1sum;
 
         private File origFile;
+        private File indexCacheDir;
 
         private String articleURLTemplate;
 
@@ -93,15 +177,33 @@ public final class Volume extends AbstractList<Entry> {
     }
 
     public Volume(File file, File cacheDir, Map<UUID, Metadata> knownMeta) throws IOException, FormatException {
+        this(file, cacheDir, null, knownMeta);
+    }
+
+    /**
+     * @param indexCacheDir directory for index data derived from this volume,
+     *                      such as the key sample, or <code>null</code> to
+     *                      keep it in memory only
+     */
+    public Volume(File file, File cacheDir, File indexCacheDir, Map<UUID, Metadata> knownMeta) throws IOException, FormatException {
         this.origFile = file;
-        init(new RandomAccessFile(file, "r"), cacheDir, knownMeta);
+        this.indexCacheDir = indexCacheDir;
+        init(new MappedVolumeFile(file), cacheDir, knownMeta);
     }
 
-    private void init(RandomAccessFile file, File cacheDir, Map<UUID, Metadata> knownMeta) throws IOException, FormatException {
+    private void init(VolumeFile file, File cacheDir, Map<UUID, Metadata> knownMeta) throws IOException, FormatException {
         this.file = file;
+        this.indexFile = file instanceof MappedVolumeFile
+                ? ((MappedVolumeFile)file).cachedView(BlockCache.shared)
+                : new CachedVolumeFile(file, BlockCache.shared);
         this.header = new Header(file);
         this.assertFormat();
         this.sha1sum = header.sha1sum;
+        this.entryCache = new EntryCache((int)header.indexCount);
+        this.indexTable = new IndexTable.FileIndexTable(indexFile, header);
+        if (indexLoading == IndexLoading.EAGER) {
+            loadIndex();
+        }
         if (knownMeta.containsKey(header.uuid)) {
                 this.metadata = knownMeta.get(header.uuid);
         } else {
@@ -120,8 +222,7 @@ public final class Volume extends AbstractList<Entry> {
             }
             if (this.metadata == null) {
                 long t0 = System.currentTimeMillis();
-                byte[] rawMeta = new byte[(int) header.metaLength];
-                file.read(rawMeta);
+                byte[] rawMeta = file.readBytes(header.metaOffset, (int) header.metaLength);
                 String metadataStr = decompress(rawMeta);
                 this.metadata = mapper.readValue(metadataStr, Metadata.class);
                 Log.d(TAG, format("Read meta for in %s", header.uuid, (System.currentTimeMillis() - t0)));
@@ -197,96 +298,381 @@ public final class Volume extends AbstractList<Entry> {
                 this.header.of, this.sha1sum);
     };
 
-    IndexItem readIndexItem(long i) throws IOException {
-        Header h = this.header;
-        long pos = h.index1Offset + i * h.index1ItemSize;
-        RandomAccessFile f = this.file;
-        f.seek(pos);
-        IndexItem indexItem = new IndexItem();
-        indexItem.keyPointer = f.readSpec(h.keyPointerSpec);
-        indexItem.articlePointer = f.readSpec(h.articlePointerSpec);
-        return indexItem;
+    private void loadIndex() {
+        if (indexLoadStarted.compareAndSet(false, true)) {
+            try {
+                indexTable = IndexTable.load(file, header);
+            }
+            catch (IOException e) {
+                Log.e(TAG, "Failed to load index of " + sha1sum, e);
+            }
+        }
     }
 
-    String readKey(long pointer) throws IOException {
-        Header h = this.header;
-        long pos = h.index2Offset + pointer;
-        RandomAccessFile f = this.file;
-        f.seek(pos);
-        int keyLength = (int)f.readSpec(h.keyLengthSpec);
-        return f.readUTF8(keyLength);
+    private void loadKeySample() {
+        int interval = keySampleInterval;
+        File sampleFile = indexCacheDir == null ? null : new File(indexCacheDir, sha1sum + ".sample");
+        if (sampleFile != null && sampleFile.exists()) {
+            try {
+                keySample = KeySample.load(sampleFile, sha1sum, interval);
+            }
+            catch (IOException e) {
+                Log.e(TAG, "Failed to load key sample " + sampleFile, e);
+            }
+        }
+        if (keySample == null) {
+            long t0 = System.currentTimeMillis();
+            KeySample sample = KeySample.build(this, interval);
+            Log.d(TAG, format("Built key sample for %s in %s", sha1sum, System.currentTimeMillis() - t0));
+            if (sampleFile != null) {
+                try {
+                    sample.save(sampleFile, sha1sum);
+                }
+                catch (IOException e) {
+                    Log.e(TAG, "Failed to save key sample " + sampleFile, e);
+                }
+            }
+            keySample = sample;
+        }
     }
 
-    Map <Long, Article> articleCache = new WeakHashMap<Long, Article>(20);
-
-    Article readArticle(long pointer) throws IOException {
-        Article a = articleCache.get(pointer);
-        if (a != null)
-                return a;
-        Header h = this.header;
-        long pos = h.articleOffset + pointer;
-        RandomAccessFile f = this.file;
-        f.seek(pos);
-        long articleLength = f.readSpec(h.articleLengthSpec);
-
-        byte[] articleBytes = new byte[(int) articleLength];
-        f.read(articleBytes);
-        String serializedArticle = decompress(articleBytes);
-        a = Article.fromJsonStr(serializedArticle);
-        a.dictionaryUUID = h.uuid;
-        a.volumeId = h.sha1sum;
-        a.pointer = pointer;
-        articleCache.put(pointer, a);
-        return a;
+    private void loadSortKeys() throws IOException, InterruptedException {
+        if (indexCacheDir == null) {
+            return;
+        }
+        File sortKeyFile = new File(indexCacheDir, sha1sum + ".keys");
+        if (!sortKeyFile.exists()) {
+            if (!buildSortKeys) {
+                return;
+            }
+            SortKeyIndex.build(this, sortKeyFile, Runtime.getRuntime().availableProcessors());
+        }
+        sortKeys = SortKeyIndex.open(sortKeyFile, sha1sum, size());
+        if (sortKeys == null) {
+            Log.w(TAG, "Sort key file doesn't match volume, deleting " + sortKeyFile);
+            sortKeyFile.delete();
+        }
     }
 
-    static Iterator<Entry> EMPTY_ITERATOR = new ArrayList<Entry>().iterator();
+    private void loadTitleGrams() throws IOException, InterruptedException {
+        if (indexCacheDir == null) {
+            return;
+        }
+        File gramFile = new File(indexCacheDir, sha1sum + ".grams");
+        if (!gramFile.exists()) {
+            if (!buildTitleGrams) {
+                return;
+            }
+            TitleGramIndex.build(this, gramFile);
+        }
+        titleGrams = TitleGramIndex.open(gramFile, sha1sum, size());
+        if (titleGrams == null) {
+            Log.w(TAG, "Trigram file doesn't match volume, deleting " + gramFile);
+            gramFile.delete();
+        }
+    }
 
-    Iterator<Entry> lookup(final LookupWord lookupWord, final Comparator<Entry> comparator) {
-        if (lookupWord.isEmpty()) {
-            return EMPTY_ITERATOR;
+    private void loadRedirects() throws IOException {
+        if (indexCacheDir == null) {
+            return;
         }
+        File redirectFile = new File(indexCacheDir, sha1sum + ".redirects");
+        if (!redirectFile.exists()) {
+            if (!buildRedirects) {
+                return;
+            }
+            RedirectTable.build(this, redirectFile, backgroundToken);
+        }
+        redirects = RedirectTable.open(redirectFile, sha1sum, size());
+        if (redirects == null) {
+            Log.w(TAG, "Redirect file doesn't match volume, deleting " + redirectFile);
+            redirectFile.delete();
+        }
+    }
 
-        final String section = lookupWord.section;
-        final Entry lookupEntry = new Entry(this.getId(), lookupWord.word);
-        final int initialIndex = binarySearch(this, lookupEntry, comparator);
-        Iterator<Entry> iterator = new Iterator<Entry>() {
+    private void loadTextIndex(LookupToken token) throws IOException {
+        if (indexCacheDir == null) {
+            return;
+        }
+        synchronized (textIndexLock) {
+            if (textIndex != null) {
+                return;
+            }
+            File textFile = new File(indexCacheDir, sha1sum + ".text");
+            if (!textFile.exists()) {
+                if (!buildTextIndex) {
+                    return;
+                }
+                ArticleTextIndex.build(this, textFile, token);
+            }
+            textIndex = ArticleTextIndex.open(textFile, sha1sum, size());
+            if (textIndex == null) {
+                Log.w(TAG, "Text index file doesn't match volume, deleting " + textFile);
+                textFile.delete();
+            }
+        }
+    }
 
-            int   index = initialIndex;
-            Entry nextEntry;
+    private void indexText(LookupToken token) {
+        try {
+            loadTextIndex(token);
+        }
+        catch (CancellationException e) {
+            Log.d(TAG, "Stopped indexing text of " + sha1sum);
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Failed to load text index for " + sha1sum, e);
+        }
+    }
 
-            {
-                prepareNext();
+    /**
+     * Opens or builds the article text index on a background thread,
+     * unless it is open already. A build stopped before resumes from its
+     * last complete segment.
+     */
+    public void startTextIndexing() {
+        if (textIndex != null || indexCacheDir == null || backgroundToken.isCancelled()) {
+            return;
+        }
+        textIndexToken.cancel();
+        final LookupToken token = new LookupToken();
+        textIndexToken = token;
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                indexText(token);
             }
+        }, "TextIndexer-" + sha1sum);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
 
-            private void prepareNext() {
-                if (index < header.indexCount) {
-                    Entry matchedEntry = get(index);
-                    nextEntry = (0 == comparator.compare(matchedEntry, lookupEntry)) ? matchedEntry : null;
-                    index++;
-                }
-                else {
-                    nextEntry = null;
+    /**
+     * Stops building the article text index, keeping complete segments.
+     */
+    public void stopTextIndexing() {
+        textIndexToken.cancel();
+    }
+
+    /**
+     * Loads index1 (in {@link IndexLoading#LAZY} mode), the key sample,
+     * sort keys, title trigrams, the redirect table and the article text
+     * index on a background thread on first access.
+     */
+    private void startBackgroundWork() {
+        if (backgroundStarted.compareAndSet(false, true)) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    if (indexLoading == IndexLoading.LAZY) {
+                        loadIndex();
+                    }
+                    try {
+                        loadKeySample();
+                    }
+                    catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to load key sample for " + sha1sum, e);
+                    }
+                    try {
+                        loadSortKeys();
+                    }
+                    catch (Exception e) {
+                        Log.e(TAG, "Failed to load sort keys for " + sha1sum, e);
+                    }
+                    try {
+                        loadTitleGrams();
+                    }
+                    catch (Exception e) {
+                        Log.e(TAG, "Failed to load trigrams for " + sha1sum, e);
+                    }
+                    try {
+                        loadRedirects();
+                    }
+                    catch (CancellationException e) {
+                        Log.d(TAG, "Stopped reading redirects of " + sha1sum);
+                    }
+                    catch (Exception e) {
+                        Log.e(TAG, "Failed to load redirects for " + sha1sum, e);
+                    }
+                    indexText(textIndexToken);
                 }
-            }
+            }, "VolumeLoader-" + sha1sum);
+            t.setPriority(Thread.MIN_PRIORITY);
+            t.start();
+        }
+    }
 
-            public boolean hasNext() {
-                return nextEntry != null;
+    /**
+     * Index of the first entry that is not less than <code>key</code>.
+     */
+    int lowerBound(Entry key, Comparator<Entry> c, LookupToken token) {
+        startBackgroundWork();
+        int lo = 0;
+        int hi = size();
+        KeySample sample = keySample;
+        if (sample != null) {
+            int[] range = sample.range(key, c);
+            lo = range[0];
+            hi = range[1];
+        }
+        return lowerBound(key, c, lo, hi, token);
+    }
+
+    /**
+     * Index of the first entry in <code>[lo, hi)</code> that is not less
+     * than <code>key</code>.
+     */
+    int lowerBound(Entry key, Comparator<Entry> c, int lo, int hi, LookupToken token) {
+        SortKeyIndex keys = sortKeys;
+        if (keys != null && c instanceof EntryComparator && !(c instanceof EntryStartComparator)) {
+            Collator collator = ((EntryComparator)c).collator();
+            try {
+                return keys.lowerBound(collator.getStrength(),
+                        SortKeyIndex.sortKey(collator, key.title), lo, hi, token);
             }
+            catch (IOException e) {
+                Log.e(TAG, "Failed to search sort keys of " + sha1sum, e);
+            }
+        }
+        return binarySearch(this, key, c, lo, hi, token);
+    }
+
+    /**
+     * Index of the first entry after <code>from</code> that is greater than
+     * <code>key</code>. Matches are usually few, so the range is found by
+     * galloping from <code>from</code> before bisecting.
+     */
+    int upperBound(Entry key, Comparator<Entry> c, int from, LookupToken token) {
+        return upperBound(key, c, from, size(), token);
+    }
 
-            public Entry next() {
-                Entry current = nextEntry;
-                current.section = section;
-                prepareNext();
-                return current;
+    /**
+     * Same as {@link #upperBound(Entry, Comparator, int, LookupToken)} but
+     * doesn't look past <code>to</code>.
+     */
+    int upperBound(Entry key, Comparator<Entry> c, int from, int to, LookupToken token) {
+        int size = to;
+        int lo = from;
+        int step = 1;
+        int hi = from;
+        while (hi < size && c.compare(get(hi), key) <= 0) {
+            token.check();
+            lo = hi + 1;
+            hi = from + step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, size);
+        while (lo < hi) {
+            token.check();
+            int mid = (lo + hi) >>> 1;
+            if (c.compare(get(mid), key) <= 0) {
+                lo = mid + 1;
             }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    String readKey(long pointer) throws IOException {
+        Header h = this.header;
+        long pos = h.index2Offset + pointer;
+        VolumeFile f = this.indexFile;
+        int keyLength = (int)f.readSpec(pos, h.keyLengthSpec);
+        return f.readUTF8(pos + h.keyLengthSize, keyLength);
+    }
 
-            public void remove() {
-                throw new UnsupportedOperationException();
+    Article readArticle(long pointer) throws IOException {
+        Article a = ArticleCache.shared.get(sha1sum, pointer);
+        if (a != null)
+                return a;
+        a = decodeArticle(pointer);
+        ArticleCache.shared.put(sha1sum, pointer, a);
+        return a;
+    }
+
+    /**
+     * Reads an article without going through the article cache.
+     */
+    Article decodeArticle(long pointer) throws IOException {
+        return decodeArticle(pointer, false);
+    }
+
+    /**
+     * Reads the article at <code>pointer</code>. With
+     * <code>redirectOnly</code> set only its redirect is read, text is
+     * left <code>null</code>.
+     */
+    Article decodeArticle(long pointer, boolean redirectOnly) throws IOException {
+        Header h = this.header;
+        long pos = h.articleOffset + pointer;
+        VolumeFile f = this.file;
+        int articleLength = (int)f.readSpec(pos, h.articleLengthSpec);
+
+        Codec.Buffer articleBytes = Decompressor.inputBuffer(articleLength);
+        Article a;
+        try {
+            f.read(pos + h.articleLengthSize, articleBytes.data, 0, articleLength);
+            a = Decompressor.decompressArticle(articleBytes.data, 0, articleLength, redirectOnly);
+        }
+        finally {
+            Decompressor.releaseInputBuffer(articleBytes);
+        }
+        return identify(a, pointer);
+    }
+
+    /**
+     * Reads compressed articles at <code>pointers</code>, which must be
+     * sorted. Articles close to each other in the volume file are read
+     * with one read.
+     */
+    List<ArticleBytes> readArticleBytes(long[] pointers) throws IOException {
+        Header h = this.header;
+        VolumeFile f = this.file;
+        int count = pointers.length;
+        long[] starts = new long[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            long pos = h.articleOffset + pointers[i];
+            lengths[i] = (int)f.readSpec(pos, h.articleLengthSpec);
+            starts[i] = pos + h.articleLengthSize;
+        }
+        List<ArticleBytes> result = new ArrayList<ArticleBytes>(count);
+        int i = 0;
+        while (i < count) {
+            long readStart = starts[i];
+            long readEnd = starts[i] + lengths[i];
+            int j = i + 1;
+            while (j < count && starts[j] - readEnd <= maxArticleReadGap) {
+                long end = Math.max(readEnd, starts[j] + lengths[j]);
+                if (end - readStart > MAX_ARTICLE_READ) {
+                    break;
+                }
+                readEnd = end;
+                j++;
             }
-        };
+            byte[] data = f.readBytes(readStart, (int)(readEnd - readStart));
+            for (int k = i; k < j; k++) {
+                result.add(new ArticleBytes(pointers[k], data, (int)(starts[k] - readStart), lengths[k]));
+            }
+            i = j;
+        }
+        return result;
+    }
 
-        return iterator;
+    /**
+     * Decompresses an article read with {@link #readArticleBytes}.
+     */
+    Article decodeArticle(ArticleBytes bytes) throws IOException {
+        Article a = Decompressor.decompressArticle(bytes.data, bytes.offset, bytes.length, false);
+        return identify(a, bytes.pointer);
+    }
+
+    private Article identify(Article a, long pointer) {
+        Header h = this.header;
+        a.dictionaryUUID = h.uuid;
+        a.volumeId = h.sha1sum;
+        a.pointer = pointer;
+        return a;
     }
 
     public String getArticleURL(String title) {
@@ -334,7 +720,11 @@ public final class Volume extends AbstractList<Entry> {
         return result;
     }
 
-    Map <Integer, Entry> entryCache = new WeakHashMap<Integer, Entry>(100);
+    EntryCache entryCache;
+
+    public EntryCache getEntryCache() {
+        return entryCache;
+    }
 
     @Override
     public Entry get(int index) {
@@ -343,9 +733,9 @@ public final class Volume extends AbstractList<Entry> {
                 return entry;
         }
         try {
-            IndexItem indexItem = readIndexItem(index);
-            String title = readKey(indexItem.keyPointer);
-            entry = new Entry(this.getId(), title, indexItem.articlePointer);
+            IndexTable t = indexTable;
+            String title = readKey(t.keyPointer(index));
+            entry = new Entry(this.getId(), title, t.articlePointer(index));
             entryCache.put(index, entry);
             return entry;
         }
@@ -360,6 +750,26 @@ public final class Volume extends AbstractList<Entry> {
     }
 
     public void close() throws IOException {
+        backgroundToken.cancel();
+        textIndexToken.cancel();
+        ArticleCache.shared.removeVolume(sha1sum);
+        SortKeyIndex keys = sortKeys;
+        if (keys != null) {
+            keys.close();
+        }
+        TitleGramIndex grams = titleGrams;
+        if (grams != null) {
+            grams.close();
+        }
+        RedirectTable redirectTable = redirects;
+        if (redirectTable != null) {
+            redirectTable.close();
+        }
+        ArticleTextIndex text = textIndex;
+        if (text != null) {
+            text.close();
+        }
+        indexFile.close();
         file.close();
     };
 
@@ -373,64 +783,8 @@ public final class Volume extends AbstractList<Entry> {
         }
     }
 
-    static String decompress(byte[] bytes) {
-        String type = null;
-        long t0 = System.currentTimeMillis();
-        try {
-            String result = decompressZlib(bytes);
-            type = "zlib";
-            return result;
-        }
-        catch (Exception e1) {
-            try {
-                String result = decompressBz2(bytes);
-                type = "bz2";
-                return result;
-            }
-            catch (IOException e2) {
-                String result = utf8(bytes);
-                type = "uncompressed";
-                return result;
-            }
-        }
-        finally {
-                Log.d(TAG, "Decompressed " + type + " in " + (System.currentTimeMillis() - t0));
-        }
-    }
-
-    static String decompressZlib(byte[] bytes) throws IOException, DataFormatException {
-        Inflater decompressor = new Inflater();
-        decompressor.setInput(bytes);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try {
-            byte[] buf = new byte[1024];
-            while (!decompressor.finished()) {
-                int count = decompressor.inflate(buf);
-                out.write(buf, 0, count);
-            }
-        }
-        finally {
-            out.close();
-        }
-        return utf8(out.toByteArray());
-    }
-
-    static String decompressBz2(byte[] bytes) throws IOException {
-        BZip2CompressorInputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(bytes));
-
-        int n = 0;
-        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length*5);
-        byte[] buf = new byte[1024];
-        try {
-            while (-1 != (n = in.read(buf))) {
-                out.write(buf, 0, n);
-            }
-        }
-        finally {
-            in.close();
-            out.close();
-        }
-        return utf8(out.toByteArray());
+    static String decompress(byte[] bytes) throws IOException {
+        return Decompressor.decompress(bytes);
     }
 
     static UUID uuid(byte[] data) {
@@ -444,11 +798,11 @@ public final class Volume extends AbstractList<Entry> {
         return new UUID(msb, lsb);
     }
 
-    static <T> int binarySearch(List<? extends T> l, T key, Comparator<? super T> c) {
-        int lo = 0;
-        int hi = l.size();
+    static <T> int binarySearch(List<? extends T> l, T key, Comparator<? super T> c, int lo, int hi,
+            LookupToken token) {
         while (lo < hi) {
-            int mid = (lo + hi) / 2;
+            token.check();
+            int mid = (lo + hi) >>> 1;
             T midVal = l.get(mid);
             int cmp = c.compare(midVal, key);
             if (cmp < 0) {
@@ -465,7 +819,24 @@ public final class Volume extends AbstractList<Entry> {
         return getDisplayTitle(true);
     }
 
+    /**
+     * Title shown in lists. Formatted once, since result lists show it
+     * on every row.
+     */
     public CharSequence getDisplayTitle(boolean withVolumeNumber) {
+        if (withVolumeNumber) {
+            if (displayTitle == null) {
+                displayTitle = formatDisplayTitle(true);
+            }
+            return displayTitle;
+        }
+        if (displayTitleWithoutVolume == null) {
+            displayTitleWithoutVolume = formatDisplayTitle(false);
+        }
+        return displayTitleWithoutVolume;
+    }
+
+    private String formatDisplayTitle(boolean withVolumeNumber) {
         String title;
         if (this.metadata.title == null) {
             title = this.origFile.getName();
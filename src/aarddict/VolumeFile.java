@@ -0,0 +1,98 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Read-only view of a dictionary volume file. All reads take an absolute
+ * position, there is no file pointer.
+ */
+abstract class VolumeFile {
+
+    abstract long length();
+
+    abstract void read(long position, byte[] dst, int offset, int length) throws IOException;
+
+    abstract void close() throws IOException;
+
+    final byte[] readBytes(long position, int length) throws IOException {
+        byte[] result = new byte[length];
+        read(position, result, 0, length);
+        return result;
+    }
+
+    int readUnsignedShort(long position) throws IOException {
+        byte[] b = new byte[2];
+        read(position, b, 0, 2);
+        return ((b[0] & 0xff) << 8) | (b[1] & 0xff);
+    }
+
+    long readUnsignedInt(long position) throws IOException {
+        return readInt(position) & 0xFFFFFFFFL;
+    }
+
+    int readInt(long position) throws IOException {
+        byte[] b = new byte[4];
+        read(position, b, 0, 4);
+        return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+    }
+
+    long readLong(long position) throws IOException {
+        byte[] b = new byte[8];
+        read(position, b, 0, 8);
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (b[i] & 0xff);
+        }
+        return result;
+    }
+
+    final String readUTF8(long position, int length) throws IOException {
+        return Volume.utf8(readBytes(position, length));
+    }
+
+    final UUID readUUID(long position) throws IOException {
+        return Volume.uuid(readBytes(position, 16));
+    }
+
+    final long readSpec(long position, char spec) throws IOException {
+        if (spec == 'L' || spec == 'I') {
+            return readUnsignedInt(position);
+        }
+        if (spec == 'Q' || spec == 'q') {
+            return readLong(position);
+        }
+        if (spec == 'H') {
+            return readUnsignedShort(position);
+        }
+        if (spec == 'l' || spec == 'i') {
+            return readInt(position);
+        }
+        if (spec == 'h') {
+            return (short)readUnsignedShort(position);
+        }
+        throw new IOException("Unsupported spec character " + spec);
+    }
+
+    final void checkBounds(long position, int length) throws IOException {
+        if (position < 0 || position + length > length()) {
+            throw new EOFException("Can't read " + length + " bytes at " + position);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+ * Matches of one lookup word in one volume, split into tiers. Tiers are
+ * comparators ordered from strongest to weakest, each tier's matches are
+ * a subrange of the next one's. The candidate range is found once with
+ * the weakest comparator, then the start of each stronger tier is found
+ * by scanning the beginning of that range, where exact matches sort.
+ * Only tiers that don't start within the scanned part fall back to a
+ * binary search, restricted to the candidate range.
+ */
+final class VolumeMatches {
+
+    /**
+     * How many entries at the start of the candidate range are classified
+     * by scanning.
+     */
+    final static int SCAN_LIMIT = 64;
+
+    final Volume              volume;
+    final Entry               key;
+    final String              section;
+    final Comparator<Entry>[] tiers;
+    final LookupToken         token;
+
+    final int                 lo;
+    final int                 hi;
+
+    /**
+     * Start of each tier's range.
+     */
+    final int[]               tierStart;
+
+    /**
+     * End of each tier's range, or -1 if it extends past the scanned part
+     * and hasn't been searched for yet.
+     */
+    final int[]               tierEnd;
+
+    VolumeMatches(Volume volume, LookupWord word, Comparator<Entry>[] tiers, LookupToken token) {
+        this(volume, word, tiers, token, null);
+    }
+
+    /**
+     * Searches within the range <code>session</code> remembers for a prefix
+     * of the word, if any, and remembers the range found.
+     */
+    VolumeMatches(Volume volume, LookupWord word, Comparator<Entry>[] tiers, LookupToken token,
+            LookupSession session) {
+        this.volume = volume;
+        this.token = token;
+        this.key = new Entry(volume.getId(), word.word);
+        this.section = word.section;
+        this.tiers = tiers;
+        int weakest = tiers.length - 1;
+        this.tierStart = new int[tiers.length];
+        this.tierEnd = new int[tiers.length];
+        if (word.isEmpty()) {
+            lo = hi = 0;
+            return;
+        }
+        int[] bounds = session == null ? null : session.bounds(volume, key.title, tiers[weakest]);
+        if (bounds == null) {
+            lo = volume.lowerBound(key, tiers[weakest], token);
+            hi = volume.upperBound(key, tiers[weakest], lo, token);
+        }
+        else {
+            lo = volume.lowerBound(key, tiers[weakest], bounds[0], bounds[1], token);
+            hi = volume.upperBound(key, tiers[weakest], lo, bounds[1], token);
+        }
+        if (session != null) {
+            session.remember(volume, key.title, tiers[weakest], lo, hi);
+        }
+        tierStart[weakest] = lo;
+        tierEnd[weakest] = hi;
+        scan(weakest);
+    }
+
+    private void scan(int weakest) {
+        final int scanEnd = Math.min(hi, lo + SCAN_LIMIT);
+        int unresolved = weakest;
+        for (int t = 0; t < weakest; t++) {
+            tierStart[t] = -1;
+            tierEnd[t] = -1;
+        }
+        for (int i = lo; i < scanEnd && unresolved > 0; i++) {
+            token.check();
+            Entry entry = volume.get(i);
+            for (int t = 0; t < weakest; t++) {
+                if (tierEnd[t] != -1) {
+                    continue;
+                }
+                int cmp = tiers[t].compare(entry, key);
+                if (tierStart[t] == -1) {
+                    if (cmp >= 0) {
+                        tierStart[t] = i;
+                        if (cmp > 0) {
+                            tierEnd[t] = i;
+                            unresolved--;
+                        }
+                    }
+                }
+                else if (cmp != 0) {
+                    tierEnd[t] = i;
+                    unresolved--;
+                }
+            }
+        }
+        for (int t = 0; t < weakest; t++) {
+            if (tierStart[t] == -1) {
+                if (scanEnd == hi) {
+                    tierStart[t] = tierEnd[t] = hi;
+                }
+                else {
+                    tierStart[t] = volume.lowerBound(key, tiers[t], scanEnd, hi, token);
+                }
+            }
+            else if (tierEnd[t] == -1 && scanEnd == hi) {
+                tierEnd[t] = hi;
+            }
+        }
+    }
+
+    /**
+     * End of the given tier's range. Found with a bounded search when the
+     * tier extends past the scanned part, the entries are not read one by
+     * one.
+     */
+    synchronized int tierEnd(int tier) {
+        if (tierEnd[tier] == -1) {
+            tierEnd[tier] = volume.upperBound(key, tiers[tier], tierStart[tier], hi, token);
+        }
+        return tierEnd[tier];
+    }
+
+    /**
+     * Entries of the given tier in index order, with the lookup section.
+     * Iteration throws CancellationException once the token is stopped.
+     */
+    IndexIterator iterator(final int tier) {
+        return new IndexIterator() {
+
+            int index = tierStart[tier];
+            Entry nextEntry;
+
+            {
+                prepareNext();
+            }
+
+            private void prepareNext() {
+                nextEntry = null;
+                int end;
+                synchronized (VolumeMatches.this) {
+                    end = tierEnd[tier];
+                }
+                if (end == -1 ? index < hi : index < end) {
+                    token.check();
+                    Entry matchedEntry = volume.get(index);
+                    if (end != -1 || 0 == tiers[tier].compare(matchedEntry, key)) {
+                        nextEntry = matchedEntry;
+                    }
+                    index++;
+                }
+            }
+
+            public int nextIndex() {
+                return index - 1;
+            }
+
+            public boolean hasNext() {
+                return nextEntry != null;
+            }
+
+            public Entry next() {
+                if (nextEntry == null) {
+                    throw new NoSuchElementException();
+                }
+                // entries are shared through the entry cache, don't modify them
+                Entry current = new Entry(nextEntry.volumeId, nextEntry.title, nextEntry.articlePointer);
+                current.section = section;
+                prepareNext();
+                return current;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
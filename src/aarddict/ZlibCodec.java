@@ -0,0 +1,71 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ *
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * zlib stream, recognized by its header check bytes. Each thread reuses
+ * its own {@link Inflater}.
+ */
+final class ZlibCodec extends Codec {
+
+    private final static ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    @Override
+    public String getName() {
+        return "zlib";
+    }
+
+    @Override
+    public boolean matches(byte[] data, int offset, int length) {
+        if (length < 2) {
+            return false;
+        }
+        int cmf = data[offset] & 0xff;
+        int flg = data[offset + 1] & 0xff;
+        return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    @Override
+    protected void decode(byte[] data, int offset, int length, Buffer out) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        try {
+            while (!inflater.finished()) {
+                if (out.length == out.data.length) {
+                    out.ensureCapacity(out.length + 1);
+                }
+                int count = inflater.inflate(out.data, out.length, out.data.length - out.length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated zlib data");
+                }
+                out.length += count;
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Invalid zlib data: " + e.getMessage());
+        }
+    }
+}
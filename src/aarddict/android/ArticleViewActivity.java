@@ -693,6 +693,10 @@ public class ArticleViewActivity extends BaseDictionaryActivity {
                         oldCurrent = backItems.get(backItems.size() - 1);
 
                     backItems.add(item);
+                    if (item.hasNext()) {
+                        dictionaryService.prefetch(item.entries.subList(
+                                item.entryIndex + 1, item.entries.size()));
+                    }
 
                     if (oldCurrent != null) {
                         HistoryItem newCurrent = item;
@@ -28,7 +28,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -37,8 +36,13 @@ import java.util.UUID;
 
 import aarddict.Article;
 import aarddict.ArticleNotFound;
+import aarddict.ArticlePrefetcher;
 import aarddict.Entry;
 import aarddict.Library;
+import aarddict.LookupResult;
+import aarddict.LookupSession;
+import aarddict.LookupToken;
+import aarddict.MatchIterator;
 import aarddict.Metadata;
 import aarddict.RedirectTooManyLevels;
 import aarddict.Volume;
@@ -47,10 +51,13 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.FileObserver;
 import android.os.IBinder;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 public final class DictionaryService extends Service {
@@ -71,8 +78,12 @@ public final class DictionaryService extends Service {
     public final static String  DICT_OPEN_FAILED   = TAG + ".DICT_OPEN_FAILED";
     public final static String  OPEN_FINISHED      = TAG + ".OPEN_FINISHED";
 
+    private final static String PREF_TEXT_INDEX    = "dictionaryService.textIndex";
+
     private Library             library;
 
+    private ArticlePrefetcher   prefetcher;
+
     private Set<String>         excludedScanDirs   = new HashSet<String>() {
                                                        {
                                                            add("/proc");
@@ -104,6 +115,12 @@ public final class DictionaryService extends Service {
         public void onCreate() {
                 Log.d(TAG, "On create");
                 library = new Library();
+                library.getBlockCache().setCapacity(Runtime.getRuntime().maxMemory() / 16);
+                library.getArticleCache().setCapacity(Runtime.getRuntime().maxMemory() / 16);
+                library.getArticleCache().setCompactTierEnabled(true);
+                prefetcher = new ArticlePrefetcher(library, Runtime.getRuntime().maxMemory() / 64);
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+                Volume.buildTextIndex = prefs.getBoolean(PREF_TEXT_INDEX, false);
                 loadDictFileList();
                 broadcastReceiver = new BroadcastReceiver() {
             @Override
@@ -253,13 +270,20 @@ public final class DictionaryService extends Service {
                 }
         }
 
+        File indexCacheDir = new File(cacheDir, "index");
+        if (!indexCacheDir.exists()) {
+                if (!indexCacheDir.mkdir()) {
+                        Log.w(TAG, "Failed to create index cache directory");
+                }
+        }
+
         Map<UUID, Metadata> knownMeta = new HashMap<UUID, Metadata>();
         for (int i = 0;  i < files.size(); i++) {
                 File file = files.get(i);
                 Volume d = null;
             try {
                 Log.d(TAG, "Opening " + file.getName());
-                d = new Volume(file, metaCacheDir, knownMeta);
+                d = new Volume(file, metaCacheDir, indexCacheDir, knownMeta);
                 Volume existing = library.getVolume(d.getId());
                 if (existing == null) {
                         Log.d(TAG, "Dictionary " + d.getId() + " is not in current collection");
@@ -300,6 +324,7 @@ public final class DictionaryService extends Service {
         public void onDestroy() {
                 super.onDestroy();
                 unregisterReceiver(broadcastReceiver);
+        prefetcher.shutdown();
         for (Volume d : library) {
             try {
                 d.close();
@@ -309,6 +334,9 @@ public final class DictionaryService extends Service {
             }
         }
         library.clear();
+        library.shutdown();
+        Log.d(TAG, library.getBlockCache().toString());
+        Log.d(TAG, library.getArticleCache().toString());
         for (DeleteObserver observer : deleteObservers.values()) {
             observer.stopWatching();
         }
@@ -394,6 +422,45 @@ public final class DictionaryService extends Service {
         return library.bestMatch(word.toString());
     }
 
+    public MatchIterator lookup(CharSequence word, LookupToken token) {
+        return library.bestMatch(word.toString(), token);
+    }
+
+    public MatchIterator lookup(CharSequence word, LookupToken token, LookupSession session) {
+        return library.bestMatch(word.toString(), token, session);
+    }
+
+    public LookupResult lookupPaged(CharSequence word, LookupToken token, LookupSession session) {
+        return library.lookup(word.toString(), token, session);
+    }
+
+    public List<Entry> searchText(CharSequence query, LookupToken token) {
+        return library.searchText(query.toString(), token);
+    }
+
+    public boolean isTextIndexEnabled() {
+        return Volume.buildTextIndex;
+    }
+
+    /**
+     * Turns indexing of article text on or off and remembers the choice.
+     * Open volumes start or stop indexing right away.
+     */
+    public void setTextIndexEnabled(boolean enabled) {
+        Editor e = PreferenceManager.getDefaultSharedPreferences(this).edit();
+        e.putBoolean(PREF_TEXT_INDEX, enabled);
+        e.commit();
+        Volume.buildTextIndex = enabled;
+        for (Volume volume : library) {
+            if (enabled) {
+                volume.startTextIndexing();
+            }
+            else {
+                volume.stopTextIndexing();
+            }
+        }
+    }
+
     public Iterator<Entry> followLink(CharSequence word, String fromVolumeId) throws ArticleNotFound {
         return library.followLink(word.toString(), fromVolumeId);
     }
@@ -411,20 +478,11 @@ public final class DictionaryService extends Service {
     }
 
     public CharSequence getDisplayTitle(String volumeId) {
-        return library.getVolume(volumeId).getDisplayTitle();
+        return library.getDisplayTitle(volumeId);
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public Map<UUID, List<Volume>> getVolumes() {
-        Map<UUID, List<Volume>> result = new LinkedHashMap();
-        for (Volume d : library) {
-                UUID dictionaryId = d.getDictionaryId();
-                        if (!result.containsKey(dictionaryId)) {
-                                result.put(dictionaryId, new ArrayList<Volume>());
-                        }
-                        result.get(dictionaryId).add(d);
-        }
-        return result;
+        return library.getDictionaries();
     }
 
 
@@ -432,6 +490,22 @@ public final class DictionaryService extends Service {
                 return library.getArticle(entry);
         }
 
+    public List<Article> getArticles(List<Entry> entries) throws IOException {
+        return library.getArticles(entries);
+    }
+
+    /**
+     * Reads articles of <code>entries</code> into the article cache in
+     * the background, replacing the previous prefetch.
+     */
+    public void prefetch(List<Entry> entries) {
+        prefetcher.prefetch(entries);
+    }
+
+    public void cancelPrefetch() {
+        prefetcher.cancel();
+    }
+
     void saveDictFileList() {
         try {
             File dir = getDir(DICTDIR, 0);
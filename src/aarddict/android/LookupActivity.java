@@ -15,13 +15,22 @@
 
 package aarddict.android;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import aarddict.Entry;
+import aarddict.LookupResult;
+import aarddict.LookupSession;
+import aarddict.LookupToken;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -65,7 +74,29 @@ public class LookupActivity extends BaseDictionaryActivity {
 
     private Timer               timer;
     private ListView            listView;
-    private Iterator<Entry> empty = new ArrayList<Entry>().iterator();
+    private final static int    PAGE_SIZE = 20;
+
+    /**
+     * Number of top matches whose articles are read ahead.
+     */
+    private final static int    PREFETCH_COUNT = 3;
+
+    /**
+     * Milliseconds matches have to stay shown before their articles are
+     * read ahead, so that typing doesn't start a prefetch per keystroke.
+     */
+    private final static long   PREFETCH_DELAY = 1500;
+
+    private TimerTask           prefetchTask;
+
+    private LookupToken         lookupToken;
+    private LookupResult        lookupResult;
+    private final LookupSession lookupSession = new LookupSession();
+
+    /**
+     * Reads pages of matches as the list scrolls to them.
+     */
+    private final ExecutorService pageLoader = Executors.newSingleThreadExecutor();
 
     void updateTitle() {
         int dictCount = dictionaryService.getVolumes().size();
@@ -80,13 +111,21 @@ public class LookupActivity extends BaseDictionaryActivity {
     protected void onDestroy() {
         super.onDestroy();
         timer.cancel();
+        pageLoader.shutdownNow();
+        cancelLookup();
+    }
+
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        return lookupResult;
     }
 
-    private void updateWordListUI(final Iterator<Entry> results) {
+    private void updateWordListUI(final LookupResult results) {
         runOnUiThread(new Runnable() {
             public void run() {
+                lookupResult = results;
                 TextView messageView = (TextView)findViewById(R.id.messageView);
-                if (!results.hasNext()) {
+                if (results == null || results.size() == 0) {
                     Editable text = editText.getText();
                     if (text != null && !text.toString().equals("")) {
                         messageView.setText(Html.fromHtml(getString(R.string.nothingFound)));
@@ -113,22 +152,83 @@ public class LookupActivity extends BaseDictionaryActivity {
         }
     };
 
+    private synchronized LookupToken newLookup() {
+        cancelLookup();
+        lookupToken = new LookupToken();
+        return lookupToken;
+    }
+
+    private synchronized void cancelLookup() {
+        if (lookupToken != null) {
+            lookupToken.cancel();
+            lookupToken = null;
+        }
+        if (prefetchTask != null) {
+            prefetchTask.cancel();
+            prefetchTask = null;
+        }
+        if (dictionaryService != null) {
+            dictionaryService.cancelPrefetch();
+        }
+    }
+
+    private synchronized void prefetch(final LookupResult results) {
+        final int count = Math.min(PREFETCH_COUNT, results.size());
+        if (count == 0) {
+            return;
+        }
+        if (prefetchTask != null) {
+            prefetchTask.cancel();
+        }
+        prefetchTask = new TimerTask() {
+            @Override
+            public void run() {
+                if (dictionaryService != null) {
+                    dictionaryService.prefetch(results.getPage(0, count));
+                }
+            }
+        };
+        try {
+            timer.schedule(prefetchTask, PREFETCH_DELAY);
+        }
+        catch (IllegalStateException e) {
+            Log.d(TAG, "Failed to schedule prefetch task", e);
+        }
+    }
+
     private void doLookup(CharSequence word) {
         if (dictionaryService == null)
             return;
+        LookupToken token = newLookup();
         word = trimLeft(word.toString());
         if (word.equals("")) {
                 Log.d(TAG, "Nothing to look up");
-                updateWordListUI(empty);
+                updateWordListUI(null);
                 return;
         }
+        LookupResult retained = lookupResult;
+        if (retained != null && !retained.isIncomplete()
+                && retained.getQuery().equals(word.toString())) {
+            Log.d(TAG, "Reusing matches of " + word);
+            updateWordListUI(retained);
+            prefetch(retained);
+            return;
+        }
         runOnUiThread(updateProgress);
         long t0 = System.currentTimeMillis();
         try {
-            Iterator<Entry> results = dictionaryService.lookup(word);
+            LookupResult results = dictionaryService.lookupPaged(word, token, lookupSession);
+            // counts infix and fuzzy matches and reads the first page off the UI thread
+            results.getPage(0, Math.min(PAGE_SIZE, results.size()));
+            if (results.isIncomplete() && token.isCancelled()) {
+                Log.d(TAG, "Lookup of " + word + " superseded after "
+                        + (System.currentTimeMillis() - t0));
+                return;
+            }
             Log.d(TAG, "Looked up " + word + " in "
                     + (System.currentTimeMillis() - t0));
             updateWordListUI(results);
+            prefetch(results);
         } catch (Exception e) {
             StringBuilder msgBuilder = new StringBuilder(
                     "There was an error while looking up ").append("\"")
@@ -141,6 +241,51 @@ public class LookupActivity extends BaseDictionaryActivity {
         }
     }
 
+    private void doTextSearch(CharSequence query) {
+        if (dictionaryService == null)
+            return;
+        LookupToken token = newLookup();
+        final String text = query.toString().trim();
+        if (text.equals("")) {
+            return;
+        }
+        runOnUiThread(updateProgress);
+        long t0 = System.currentTimeMillis();
+        try {
+            final List<Entry> matches = dictionaryService.searchText(text, token);
+            Log.d(TAG, "Searched text for " + text + " in "
+                    + (System.currentTimeMillis() - t0));
+            runOnUiThread(new Runnable() {
+                public void run() {
+                    TextView messageView = (TextView)findViewById(R.id.messageView);
+                    if (matches.isEmpty()) {
+                        messageView.setText(Html.fromHtml(getString(R.string.nothingFound)));
+                        messageView.setVisibility(View.VISIBLE);
+                    }
+                    else {
+                        messageView.setVisibility(View.GONE);
+                    }
+                    TextMatchAdapter adapter = new TextMatchAdapter(matches);
+                    listView.setAdapter(adapter);
+                    listView.setOnItemClickListener(adapter);
+                    setProgressBarIndeterminateVisibility(false);
+                }
+            });
+        }
+        catch (CancellationException e) {
+            Log.d(TAG, "Text search for " + text + " superseded after "
+                    + (System.currentTimeMillis() - t0));
+        }
+        catch (Exception e) {
+            Log.e(TAG, "There was an error while searching text for \"" + text + "\"", e);
+            runOnUiThread(new Runnable() {
+                public void run() {
+                    setProgressBarIndeterminateVisibility(false);
+                }
+            });
+        }
+    }
+
     private void launchWord(Entry theWord) {
         Intent next = new Intent();
         next.setClass(this, ArticleViewActivity.class);
@@ -152,34 +297,85 @@ public class LookupActivity extends BaseDictionaryActivity {
     }
 
 
-    final class WordAdapter extends BaseAdapter implements AdapterView.OnItemClickListener {
+    private TwoLineListItem createView(LayoutInflater inflater, ViewGroup parent) {
+            TwoLineListItem item;
+            if (DeviceInfo.EINK_SCREEN)
+                    item = (TwoLineListItem) inflater.inflate(
+                    R.layout.eink_simple_list_item_2, parent, false);
+            else
+            item = (TwoLineListItem) inflater.inflate(
+                    android.R.layout.simple_list_item_2, parent, false);
+        item.getText2().setSingleLine();
+        item.getText2().setEllipsize(TextUtils.TruncateAt.END);
+        return item;
+    }
+
+    private void bindView(TwoLineListItem view, Entry word) {
+        view.getText1().setText(word.title);
+        view.getText2().setText(dictionaryService.getDisplayTitle(word.volumeId));
+    }
 
-        private final List<Entry>    words;
+    /**
+     * Titles whose articles contain the words searched for.
+     */
+    final class TextMatchAdapter extends BaseAdapter implements AdapterView.OnItemClickListener {
+
+        private final List<Entry>    matches;
         private final LayoutInflater mInflater;
-        private int                  itemCount;
-        private Iterator<Entry>      results;
-        private boolean              displayMore;
 
-        public WordAdapter(Iterator<Entry> results) {
-            this.results = results;
-            this.words = new ArrayList<Entry>();
-            loadBatch();
+        TextMatchAdapter(List<Entry> matches) {
+            this.matches = matches;
             mInflater = (LayoutInflater) LookupActivity.this.getSystemService(
                     Context.LAYOUT_INFLATER_SERVICE);
         }
 
-        private void loadBatch() {
-            int count = 0;
-            while (results.hasNext() && count < 20) {
-                count++;
-                words.add(results.next());
+        public int getCount() {
+            return matches.size();
+        }
+
+        public Object getItem(int position) {
+            return matches.get(position);
+        }
+
+        public long getItemId(int position) {
+            return position;
+        }
+
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TwoLineListItem view = (convertView != null) ? (TwoLineListItem) convertView :
+                    createView(mInflater, parent);
+            bindView(view, matches.get(position));
+            return view;
+        }
+
+        public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            launchWord(matches.get(position));
+        }
+    }
+
+    final class WordAdapter extends BaseAdapter implements AdapterView.OnItemClickListener {
+
+        private final LookupResult              results;
+        private final int                       count;
+        private final Map<Integer, List<Entry>> pages;
+        private final Set<Integer>              loading;
+        private final LayoutInflater            mInflater;
+
+        public WordAdapter(LookupResult results) {
+            this.results = results;
+            this.count = results == null ? 0 : results.size();
+            this.pages = new HashMap<Integer, List<Entry>>();
+            this.loading = new HashSet<Integer>();
+            if (count > 0) {
+                // already read by the lookup
+                pages.put(0, results.getPage(0, PAGE_SIZE));
             }
-            displayMore = results.hasNext();
-            itemCount = words.size();
+            mInflater = (LayoutInflater) LookupActivity.this.getSystemService(
+                    Context.LAYOUT_INFLATER_SERVICE);
         }
 
         public int getCount() {
-            return itemCount;
+            return count;
         }
 
         public Object getItem(int position) {
@@ -191,54 +387,81 @@ public class LookupActivity extends BaseDictionaryActivity {
         }
 
         public View getView(int position, View convertView, ViewGroup parent) {
-            if (displayMore && position == itemCount - 1) {
-                loadMore(position);
-            }
             TwoLineListItem view = (convertView != null) ? (TwoLineListItem) convertView :
-                    createView(parent);
-            bindView(view, words.get(position));
+                    createView(mInflater, parent);
+            Entry word = getEntry(position);
+            if (word == null) {
+                view.getText1().setText("");
+                view.getText2().setText("");
+                loadPage(position / PAGE_SIZE);
+            }
+            else {
+                bindView(view, word);
+            }
             return view;
         }
 
-        private int loadingMoreForPos;
+        /**
+         * Entry at <code>position</code> if its page has been read.
+         */
+        private Entry getEntry(int position) {
+            List<Entry> page;
+            synchronized (pages) {
+                page = pages.get(position / PAGE_SIZE);
+            }
+            int index = position % PAGE_SIZE;
+            return page == null || index >= page.size() ? null : page.get(index);
+        }
 
-        private void loadMore(int forPos) {
-                if (loadingMoreForPos == forPos) {
-                        return;
+        /**
+         * Reads a page in the background unless it is read or being read.
+         * A page that failed to read is not marked as read, so it is tried
+         * again when one of its rows is shown next time.
+         */
+        private void loadPage(final int page) {
+            synchronized (pages) {
+                if (pages.containsKey(page) || !loading.add(page)) {
+                    return;
                 }
-                loadingMoreForPos = forPos;
-                new Thread(new Runnable() {
-                        public void run() {
-                                loadBatch();
-                                runOnUiThread(new Runnable() {
-                                        public void run() {
-                                                notifyDataSetChanged();
-                                        }
-                                });
+            }
+            try {
+                pageLoader.execute(new Runnable() {
+                    public void run() {
+                        List<Entry> entries = null;
+                        try {
+                            entries = results.getPage(page * PAGE_SIZE, PAGE_SIZE);
                         }
-                }).start();
-        }
-
-        private TwoLineListItem createView(ViewGroup parent) {
-                TwoLineListItem item;
-                if (DeviceInfo.EINK_SCREEN)
-                        item = (TwoLineListItem) mInflater.inflate(
-                        R.layout.eink_simple_list_item_2, parent, false);
-                else
-                item = (TwoLineListItem) mInflater.inflate(
-                        android.R.layout.simple_list_item_2, parent, false);
-            item.getText2().setSingleLine();
-            item.getText2().setEllipsize(TextUtils.TruncateAt.END);
-            return item;
-        }
-
-        private void bindView(TwoLineListItem view, Entry word) {
-            view.getText1().setText(word.title);
-            view.getText2().setText(dictionaryService.getDisplayTitle(word.volumeId));
+                        catch (Exception e) {
+                            Log.e(TAG, "Failed to read page " + page + " of matches", e);
+                        }
+                        synchronized (pages) {
+                            loading.remove(page);
+                            if (entries != null) {
+                                pages.put(page, entries);
+                            }
+                        }
+                        if (entries != null) {
+                            runOnUiThread(new Runnable() {
+                                public void run() {
+                                    notifyDataSetChanged();
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                synchronized (pages) {
+                    loading.remove(page);
+                }
+            }
         }
 
         public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                launchWord(words.get(position));
+            Entry word = getEntry(position);
+            if (word != null) {
+                launchWord(word);
+            }
         }
     }
 
@@ -246,6 +469,8 @@ public class LookupActivity extends BaseDictionaryActivity {
     final static int MENU_DICT_INFO = 1;
     final static int MENU_ABOUT = 2;
     final static int MENU_DICT_REFRESH = 3;
+    final static int MENU_SEARCH_TEXT = 4;
+    final static int MENU_TEXT_INDEX = 5;
     private EditText editText;
 
     private TextWatcher textWatcher;
@@ -254,6 +479,16 @@ public class LookupActivity extends BaseDictionaryActivity {
     public boolean onCreateOptionsMenu(Menu menu) {
         menu.add(0, MENU_DICT_INFO, 0, R.string.mnInfo).setIcon(android.R.drawable.ic_menu_info_details);
         menu.add(0, MENU_ABOUT, 0, R.string.mnAbout).setIcon(R.drawable.ic_menu_aarddict);
+        menu.add(0, MENU_SEARCH_TEXT, 0, R.string.mnSearchText).setIcon(android.R.drawable.ic_menu_search);
+        menu.add(0, MENU_TEXT_INDEX, 0, R.string.mnTextIndex).setCheckable(true);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        boolean textIndex = dictionaryService != null && dictionaryService.isTextIndexEnabled();
+        menu.findItem(MENU_SEARCH_TEXT).setVisible(textIndex);
+        menu.findItem(MENU_TEXT_INDEX).setChecked(textIndex).setEnabled(dictionaryService != null);
         return true;
     }
 
@@ -266,6 +501,25 @@ public class LookupActivity extends BaseDictionaryActivity {
         case MENU_ABOUT:
             showAbout();
             break;
+        case MENU_SEARCH_TEXT:
+            final String query = editText.getText().toString();
+            try {
+                timer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        doTextSearch(query);
+                    }
+                }, 0);
+            }
+            catch (IllegalStateException e) {
+                Log.e(TAG, "Failed to schedule text search task", e);
+            }
+            break;
+        case MENU_TEXT_INDEX:
+            if (dictionaryService != null) {
+                dictionaryService.setTextIndexEnabled(!item.isChecked());
+            }
+            break;
         }
         return true;
     }
@@ -341,6 +595,8 @@ public class LookupActivity extends BaseDictionaryActivity {
 
     @Override
     void onDictionaryOpenFinished() {
+        lookupSession.clear();
+        lookupResult = null;
         onDictionaryServiceReady();
     }
 
@@ -360,6 +616,7 @@ public class LookupActivity extends BaseDictionaryActivity {
         }
 
         timer = new Timer();
+        lookupResult = (LookupResult)getLastNonConfigurationInstance();
 
         editText = (EditText)findViewById(R.id.wordInput);
 
@@ -378,6 +635,7 @@ public class LookupActivity extends BaseDictionaryActivity {
                 if (currentLookupTask != null) {
                     currentLookupTask.cancel();
                 }
+                cancelLookup();
 
                 final Editable textToLookup = s;
                 currentLookupTask = new TimerTask() {
@@ -0,0 +1,87 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+
+package aarddict;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class TestArticle extends TestCase {
+
+	private static Article parse(String json, boolean redirectOnly) throws IOException {
+		byte[] data = ("xx" + json + "yy").getBytes("UTF-8");
+		return Article.fromJson(data, 2, data.length - 4, redirectOnly);
+	}
+
+	public void testText() throws IOException {
+		Article a = parse("[\"<p>caf\\u00e9 \\\"x\\\"</p>\", [], {}]", false);
+		assertEquals("<p>café \"x\"</p>", a.text);
+		assertFalse(a.isRedirect());
+		a = parse("[\"text\"]", false);
+		assertEquals("text", a.text);
+		assertFalse(a.isRedirect());
+	}
+
+	public void testRedirect() throws IOException {
+		Article a = parse("[\"\", [], {\"r\": \"Target\"}]", false);
+		assertTrue(a.isRedirect());
+		assertEquals("Target", a.getRedirect());
+		a = parse("[\"\", [], {\"redirect\": \"Other\"}]", false);
+		assertEquals("Other", a.getRedirect());
+		a = parse("[\"\", [], {\"redirect\": \"Other\", \"r\": \"Target\"}]", false);
+		assertEquals("Target", a.getRedirect());
+		a.section = "s";
+		assertEquals("Target#s", a.getRedirect());
+		assertEquals("Target", a.getRedirectLink());
+	}
+
+	public void testRedirectOnly() throws IOException {
+		Article a = parse("[\"long text\", [[\"b\", 0, 4]], {\"r\": \"Target\"}]", true);
+		assertNull(a.text);
+		assertEquals("Target", a.getRedirect());
+	}
+
+	public void testSkipsTagsAndOtherMetadata() throws IOException {
+		Article a = parse("[\"text\", [[\"a\", 0, 4, {\"href\": \"x\"}], [\"b\", 1, 2]], "
+				+ "{\"other\": {\"r\": \"No\"}, \"list\": [1, 2], \"r\": \"Yes\"}]", false);
+		assertEquals("text", a.text);
+		assertEquals("Yes", a.getRedirect());
+	}
+
+	public void testMetadataNotLast() throws IOException {
+		Article a = parse("[\"text\", [], {\"r\": \"Target\"}, 1]", false);
+		assertFalse(a.isRedirect());
+	}
+
+	public void testScalarValues() throws IOException {
+		Article a = parse("[1, [], {\"r\": null}]", false);
+		assertEquals("1", a.text);
+		assertEquals("null", a.getRedirect());
+	}
+
+	public void testMalformed() {
+		String[] malformed = { "{}", "[]", "[[\"text\"]]", "[\"text\", [", "" };
+		for (String json : malformed) {
+			try {
+				parse(json, false);
+				fail(json);
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+
+package aarddict;
+
+import junit.framework.TestCase;
+
+public class TestArticleCache extends TestCase {
+
+	private static Article article(String text) {
+		Article a = new Article();
+		a.volumeId = "v";
+		a.text = text;
+		return a;
+	}
+
+	private static String text(int length, char c) {
+		StringBuilder s = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			s.append(c);
+		}
+		return s.toString();
+	}
+
+	public void testPutTooLargeDropsOldCopy() {
+		ArticleCache cache = new ArticleCache(1000);
+		cache.put("v", 1, article("old"));
+		assertEquals("old", cache.get("v", 1).text);
+		cache.put("v", 1, article(text(1000, 'x')));
+		assertNull(cache.get("v", 1));
+		assertEquals(0, cache.getSize());
+	}
+
+	public void testPutReplacesCompactCopy() {
+		ArticleCache cache = new ArticleCache(1000);
+		cache.setCompactTierEnabled(true);
+		Article first = article(text(100, 'a'));
+		cache.put("v", 1, first);
+		// pushes the first article out to the compact tier
+		cache.put("v", 2, article(text(140, 'b')));
+		cache.put("v", 3, article(text(140, 'c')));
+		assertTrue(cache.contains("v", 1));
+		// compact copy: article overhead and 100 bytes of UTF-8 text
+		long sizeWithoutFirst = cache.getSize() - (ArticleCache.sizeOf(first) - 100);
+		Article second = article(text(5, 'd'));
+		cache.put("v", 1, second);
+		assertEquals(sizeWithoutFirst + ArticleCache.sizeOf(second), cache.getSize());
+		assertEquals(second.text, cache.get("v", 1).text);
+	}
+
+	public void testSizeAfterRepeatedPuts() {
+		ArticleCache cache = new ArticleCache(10000);
+		for (int i = 0; i < 5; i++) {
+			cache.put("v", 1, article(text(100, 'a')));
+			cache.get("v", 1);
+		}
+		assertEquals(ArticleCache.sizeOf(article(text(100, 'a'))), cache.getSize());
+	}
+}
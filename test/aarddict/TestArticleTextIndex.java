@@ -0,0 +1,204 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import junit.framework.TestCase;
+
+public class TestArticleTextIndex extends TestCase {
+
+	private final static int COUNT = 2 * ArticleTextIndex.SEGMENT_SIZE + 452;
+
+	private File                dir;
+	private Volume              volume;
+	private File                target;
+	private Map<String, String> redirects;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = VolumeWriter.tempDir("text");
+		String[] titles = new String[COUNT];
+		redirects = new HashMap<String, String>();
+		for (int i = 0; i < COUNT; i++) {
+			titles[i] = "t" + i + (i % 7 == 0 ? " seven" : "") + (i % 11 == 0 ? " eleven" : "");
+			if (i % 13 == 0) {
+				redirects.put(titles[i], "t1");
+			}
+		}
+		volume = VolumeWriter.open(VolumeWriter.write(dir, "text", titles, redirects),
+				new File(dir, "cache"));
+		target = new File(dir, "test.text");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		volume.close();
+		VolumeWriter.delete(dir);
+	}
+
+	private File segment(int s) {
+		return new File(dir, target.getName() + "." + s + ".seg");
+	}
+
+	/**
+	 * Positions of titles that aren't redirects and have all words of
+	 * <code>query</code>, the text of every article being "Article about"
+	 * and its title. A query without words matches nothing.
+	 */
+	private String expected(String query) {
+		List<Integer> result = new ArrayList<Integer>();
+		List<String> queryWords = ArticleTextIndex.words(query);
+		for (int i = 0; i < volume.size() && !queryWords.isEmpty(); i++) {
+			String title = volume.get(i).title;
+			if (redirects.containsKey(title)) {
+				continue;
+			}
+			List<String> words = ArticleTextIndex.words("Article about " + title);
+			if (words.containsAll(queryWords)) {
+				result.add(i);
+			}
+		}
+		return result.toString();
+	}
+
+	private static String toString(int[] positions) {
+		return Arrays.toString(positions);
+	}
+
+	private void assertSearches(ArticleTextIndex index) throws IOException {
+		for (String query : new String[] { "article", "seven", "eleven",
+				"seven eleven", "Seven <b>Eleven</b>", "t77", "t78 seven",
+				"about t1", "missing", "" }) {
+			assertEquals(query, expected(query),
+					toString(index.search(query, LookupToken.NONE)));
+		}
+	}
+
+	public void testWords() {
+		assertEquals(Arrays.asList("zurich", "is", "city"),
+				ArticleTextIndex.words("<p>Zürich is a <a href=\"x\">city</a>&nbsp;</p>"));
+		assertEquals(Arrays.asList("ab"), ArticleTextIndex.words("ab AB Ab"));
+	}
+
+	public void testIntersect() {
+		assertEquals("[3, 7]", toString(ArticleTextIndex.intersect(
+				new int[] { 1, 3, 5, 7 }, new int[] { 2, 3, 7, 9 })));
+		assertEquals("[]", toString(ArticleTextIndex.intersect(
+				new int[] { 1 }, new int[0])));
+	}
+
+	public void testBuildAndSearch() throws Exception {
+		ArticleTextIndex.build(volume, target, LookupToken.NONE);
+		assertFalse(segment(0).exists());
+		ArticleTextIndex index = ArticleTextIndex.open(target, volume.getId(), volume.size());
+		try {
+			assertSearches(index);
+		}
+		finally {
+			index.close();
+		}
+	}
+
+	public void testCancelled() throws Exception {
+		LookupToken token = new LookupToken();
+		token.cancel();
+		try {
+			ArticleTextIndex.build(volume, target, token);
+			fail("Cancelled build finished");
+		}
+		catch (CancellationException e) {
+		}
+		assertFalse(target.exists());
+		assertFalse(segment(0).exists());
+	}
+
+	public void testResume() throws Exception {
+		// a directory in place of the last segment's temporary file stops
+		// the build after the first two segments
+		File blocked = new File(segment(2).getPath() + ".tmp");
+		assertTrue(blocked.mkdir());
+		try {
+			ArticleTextIndex.build(volume, target, LookupToken.NONE);
+			fail("Build finished");
+		}
+		catch (IOException e) {
+		}
+		assertTrue(segment(0).exists());
+		assertTrue(segment(1).exists());
+		assertFalse(segment(2).exists());
+		assertFalse(target.exists());
+		assertTrue(blocked.delete());
+
+		// complete segments are not built again, so the same trick on
+		// them doesn't stop the resumed build
+		File[] kept = { new File(segment(0).getPath() + ".tmp"),
+				new File(segment(1).getPath() + ".tmp") };
+		for (File f : kept) {
+			assertTrue(f.mkdir());
+		}
+		ArticleTextIndex.build(volume, target, LookupToken.NONE);
+		for (File f : kept) {
+			assertTrue(f.delete());
+		}
+		assertFalse(segment(2).exists());
+		ArticleTextIndex index = ArticleTextIndex.open(target, volume.getId(), volume.size());
+		try {
+			assertSearches(index);
+		}
+		finally {
+			index.close();
+		}
+	}
+
+	public void testOtherVolume() throws Exception {
+		ArticleTextIndex.build(volume, target, LookupToken.NONE);
+		assertNull(ArticleTextIndex.open(target, "0000000000000000000000000000000000000000",
+				volume.size()));
+	}
+
+	public void testLibrarySearch() throws Exception {
+		ArticleTextIndex.build(volume, target, LookupToken.NONE);
+		volume.textIndex = ArticleTextIndex.open(target, volume.getId(), volume.size());
+		Library library = new Library();
+		library.add(volume);
+		try {
+			List<Entry> matches = library.searchText("seven eleven", LookupToken.NONE);
+			List<Integer> positions = new ArrayList<Integer>();
+			for (Entry e : matches) {
+				assertEquals(volume.getId(), e.volumeId);
+				for (int i = 0; i < volume.size(); i++) {
+					if (volume.get(i).title.equals(e.title)) {
+						positions.add(i);
+					}
+				}
+			}
+			assertEquals(expected("seven eleven"), positions.toString());
+		}
+		finally {
+			library.shutdown();
+			volume.textIndex.close();
+			volume.textIndex = null;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import junit.framework.TestCase;
+
+public class TestEntryCache extends TestCase {
+
+	private static Entry entry(int index) {
+		return new Entry("v", "t" + index, index);
+	}
+
+	public void testSearchTopIsPinned() {
+		EntryCache cache = new EntryCache(1000, 3, 8);
+		// the first three steps of a search over [0, 1000)
+		int[] tree = { 500, 250, 750, 125, 375, 625, 875 };
+		for (int index : tree) {
+			cache.put(index, entry(index));
+		}
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, entry(i));
+		}
+		for (int index : tree) {
+			assertEquals("t" + index, cache.get(index).title);
+		}
+		assertEquals(tree.length + 8, cache.size());
+	}
+
+	public void testRecentRange() {
+		EntryCache cache = new EntryCache(1000, 3, 8);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, entry(i));
+		}
+		for (int i = 992; i < 1000; i++) {
+			assertEquals("t" + i, cache.get(i).title);
+		}
+		assertNull(cache.get(10));
+		assertEquals(8, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	public void testSmallVolume() {
+		EntryCache cache = new EntryCache(3);
+		for (int i = 0; i < 3; i++) {
+			assertNull(cache.get(i));
+			cache.put(i, entry(i));
+		}
+		for (int i = 0; i < 3; i++) {
+			assertEquals("t" + i, cache.get(i).title);
+		}
+		assertEquals(3, cache.size());
+		assertEquals(0.5, cache.getHitRate(), 0);
+	}
+}
@@ -0,0 +1,148 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestFuzzyMatches extends TestCase {
+
+	private File            dir;
+	private List<Volume>    volumes;
+	private long            timeLimit;
+	private int             maxPostingsSize;
+
+	@Override
+	protected void setUp() throws Exception {
+		timeLimit = FuzzyMatches.timeLimit;
+		maxPostingsSize = FuzzyMatches.maxPostingsSize;
+		dir = VolumeWriter.tempDir("fuzzy");
+		volumes = new ArrayList<Volume>();
+		File cache = new File(dir, "cache");
+		String[][] titles = { TestTitleGramIndex.TITLES,
+				{ "Bostonian", "Huston", "Austen", "Yolk", "Dalls" } };
+		for (int v = 0; v < titles.length; v++) {
+			Volume volume = VolumeWriter.open(VolumeWriter.write(dir, "fuzzy" + v,
+					titles[v], Collections.<String, String> emptyMap()), cache);
+			volume.titleGrams = TestTitleGramIndex.build(volume, new File(dir, v + ".grams"));
+			volumes.add(volume);
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FuzzyMatches.timeLimit = timeLimit;
+		FuzzyMatches.maxPostingsSize = maxPostingsSize;
+		for (Volume volume : volumes) {
+			volume.titleGrams.close();
+			volume.close();
+		}
+		VolumeWriter.delete(dir);
+	}
+
+	private static int distance(String a, String b) {
+		int[][] d = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); i++) {
+			d[i][0] = i;
+		}
+		for (int j = 0; j <= b.length(); j++) {
+			d[0][j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			for (int j = 1; j <= b.length(); j++) {
+				int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				d[i][j] = Math.min(d[i - 1][j - 1] + cost,
+						Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1));
+			}
+		}
+		return d[a.length()][b.length()];
+	}
+
+	private static String normalize(String s) {
+		return TitleGramIndex.normalize(s);
+	}
+
+	/**
+	 * Titles within the edit distance allowed for <code>word</code>, by
+	 * distance, volume and index, found by reading all titles.
+	 */
+	private List<String> expected(String word) {
+		String query = normalize(word);
+		int max = LevenshteinAutomaton.maxDistance(query.length());
+		List<String> result = new ArrayList<String>();
+		for (int d = 0; d <= max; d++) {
+			for (Volume volume : volumes) {
+				for (Entry e : volume) {
+					if (distance(query, normalize(e.title)) == d) {
+						result.add(e.title);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private FuzzyMatches search(String word) {
+		return new FuzzyMatches(volumes, LookupWord.splitWord(word), LookupToken.NONE);
+	}
+
+	private static List<String> titles(FuzzyMatches matches) {
+		List<String> result = new ArrayList<String>();
+		for (Entry e : matches.entries) {
+			result.add(e.title);
+		}
+		return result;
+	}
+
+	public void testRanking() {
+		for (String word : new String[] { "Bostn", "Hoston", "Yrok", "Dallas",
+				"Zurik", "Austn", "New Yrok", "appel", "Yonkres" }) {
+			FuzzyMatches matches = search(word);
+			assertFalse(word, matches.truncated);
+			assertEquals(word, expected(word), titles(matches));
+		}
+		assertEquals("Boston", search("Bostn").entries.get(0).title);
+	}
+
+	public void testShortWord() {
+		assertTrue(search("ab").entries.isEmpty());
+	}
+
+	public void testCommonTrigramsLeftOut() {
+		FuzzyMatches.maxPostingsSize = 1;
+		for (String word : new String[] { "Bostn", "Hoston", "Yrok", "Austn" }) {
+			assertEquals(word, expected(word), titles(search(word)));
+		}
+	}
+
+	public void testAllTrigramsTooCommon() {
+		FuzzyMatches.maxPostingsSize = 0;
+		FuzzyMatches matches = search("Bostn");
+		assertTrue(matches.truncated);
+		assertTrue(matches.entries.isEmpty());
+	}
+
+	public void testTimeLimit() {
+		FuzzyMatches.timeLimit = -1;
+		FuzzyMatches matches = search("Bostn");
+		assertTrue(matches.truncated);
+		assertTrue(matches.entries.isEmpty());
+	}
+}
@@ -0,0 +1,101 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+
+package aarddict;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+
+import junit.framework.TestCase;
+
+public class TestKeySample extends TestCase {
+
+	private File   dir;
+	private Volume volume;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = VolumeWriter.tempDir("sample");
+		volume = VolumeWriter.open(VolumeWriter.write(dir, "sample",
+				TestLookupResult.titles("appletree"),
+				Collections.<String, String> emptyMap()), new File(dir, "cache"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		volume.close();
+		VolumeWriter.delete(dir);
+	}
+
+	/**
+	 * Index of the first title not less than <code>key</code>.
+	 */
+	private int lowerBound(Entry key, Comparator<Entry> c) {
+		int i = 0;
+		while (i < volume.size() && c.compare(volume.get(i), key) < 0) {
+			i++;
+		}
+		return i;
+	}
+
+	private void assertRanges(KeySample sample) {
+		Comparator<Entry>[] comparators = EntryComparators.ALL_FULL;
+		for (int i = 0; i < volume.size(); i++) {
+			String title = volume.get(i).title;
+			for (String word : new String[] { title, title + "z", title.substring(0, 1), "" }) {
+				Entry key = new Entry(volume.getId(), word);
+				for (Comparator<Entry> c : comparators) {
+					int[] range = sample.range(key, c);
+					int first = lowerBound(key, c);
+					assertTrue(word, range[0] <= first && first <= range[1]);
+					assertTrue(word, range[1] - range[0] < sample.interval);
+				}
+			}
+		}
+	}
+
+	public void testRange() {
+		for (int interval : new int[] { 1, 2, 7, 16, 1000 }) {
+			assertRanges(KeySample.build(volume, interval));
+		}
+	}
+
+	public void testRangeBeforeAndAfter() {
+		KeySample sample = KeySample.build(volume, 8);
+		Comparator<Entry> c = EntryComparators.FULL3;
+		int[] range = sample.range(new Entry(volume.getId(), ""), c);
+		assertEquals(0, range[0]);
+		assertEquals(0, range[1]);
+		range = sample.range(new Entry(volume.getId(), "zzzz"), c);
+		assertEquals(volume.size(), range[1]);
+	}
+
+	public void testSaveLoad() throws Exception {
+		KeySample sample = KeySample.build(volume, 7);
+		File file = new File(dir, "sample");
+		sample.save(file, volume.getId());
+		KeySample loaded = KeySample.load(file, volume.getId(), 7);
+		assertEquals(sample.size, loaded.size);
+		assertEquals(sample.entries.length, loaded.entries.length);
+		for (int i = 0; i < sample.entries.length; i++) {
+			assertEquals(sample.entries[i].title, loaded.entries[i].title);
+		}
+		assertRanges(loaded);
+		assertNull(KeySample.load(file, volume.getId(), 8));
+		assertNull(KeySample.load(file, "other", 7));
+	}
+}
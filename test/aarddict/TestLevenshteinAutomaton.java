@@ -0,0 +1,75 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+
+package aarddict;
+
+import junit.framework.TestCase;
+
+public class TestLevenshteinAutomaton extends TestCase {
+
+	private static int reference(String a, String b) {
+		int[][] d = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); i++) {
+			d[i][0] = i;
+		}
+		for (int j = 0; j <= b.length(); j++) {
+			d[0][j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			for (int j = 1; j <= b.length(); j++) {
+				int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				d[i][j] = Math.min(d[i - 1][j - 1] + cost,
+						Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1));
+			}
+		}
+		return d[a.length()][b.length()];
+	}
+
+	public void testMaxDistance() {
+		assertEquals(0, LevenshteinAutomaton.maxDistance(0));
+		assertEquals(0, LevenshteinAutomaton.maxDistance(2));
+		assertEquals(1, LevenshteinAutomaton.maxDistance(3));
+		assertEquals(1, LevenshteinAutomaton.maxDistance(5));
+		assertEquals(2, LevenshteinAutomaton.maxDistance(6));
+		assertEquals(2, LevenshteinAutomaton.maxDistance(20));
+	}
+
+	public void testDistance() {
+		LevenshteinAutomaton a = new LevenshteinAutomaton("apple", 1);
+		assertEquals(0, a.distance("apple"));
+		assertEquals(1, a.distance("aple"));
+		assertEquals(1, a.distance("applee"));
+		assertEquals(1, a.distance("appla"));
+		assertEquals(2, a.distance("apricot"));
+		assertEquals(2, a.distance("ap"));
+		assertEquals(2, a.distance(""));
+	}
+
+	public void testSameAsFullMatrix() {
+		String[] words = { "", "a", "ab", "abc", "photograph", "photgraph",
+				"fotograph", "zurich", "zürich", "colour", "color", "yorkshire",
+				"york", "kitten", "sitting", "flaw", "lawn" };
+		for (String query : words) {
+			for (int max = 0; max <= 3; max++) {
+				LevenshteinAutomaton a = new LevenshteinAutomaton(query, max);
+				for (String s : words) {
+					int expected = Math.min(reference(query, s), max + 1);
+					assertEquals(query + " " + s + " " + max, expected, a.distance(s));
+				}
+			}
+		}
+	}
+}
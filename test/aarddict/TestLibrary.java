@@ -0,0 +1,200 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+
+package aarddict;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class TestLibrary extends TestCase {
+
+	private File    dir;
+	private Volume  one;
+	private Volume  two;
+	private Library library;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = VolumeWriter.tempDir("library");
+		File cache = new File(dir, "cache");
+		one = VolumeWriter.open(VolumeWriter.write(dir, "one", new String[] { "a", "b", "d", "e" },
+				Collections.<String, String> emptyMap()), cache);
+		two = VolumeWriter.open(VolumeWriter.write(dir, "two", new String[] { "b", "c" },
+				Collections.<String, String> emptyMap()), cache);
+		library = new Library();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		library.shutdown();
+		one.close();
+		two.close();
+		VolumeWriter.delete(dir);
+	}
+
+	public void testIndexesFollowChanges() {
+		library.add(one);
+		library.add(two);
+		assertSame(one, library.getVolume(one.getId()));
+		assertSame(two, library.getVolume(two.getId()));
+		assertEquals(2, library.getDictionaries().size());
+
+		library.makeFirst(two.getId());
+		assertEquals(Arrays.asList(two, one), library.getVolumes());
+		assertEquals(two.getDictionaryId(), library.getDictionaries().keySet().iterator().next());
+
+		assertTrue(library.remove(two));
+		assertFalse(library.remove(two));
+		assertNull(library.getVolume(two.getId()));
+		assertEquals(1, library.getDictionaries().size());
+
+		library.clear();
+		assertTrue(library.isEmpty());
+		assertNull(library.getVolume(one.getId()));
+		assertTrue(library.getDictionaries().isEmpty());
+	}
+
+	public void testVolumesOnlyChangeThroughLibrary() {
+		library.add(one);
+		Iterator<Volume> i = library.iterator();
+		i.next();
+		try {
+			i.remove();
+			fail();
+		}
+		catch (UnsupportedOperationException e) {
+		}
+		List<Volume> volumes = library.getVolumes();
+		try {
+			volumes.clear();
+			fail();
+		}
+		catch (UnsupportedOperationException e) {
+		}
+		library.add(two);
+		assertEquals(1, volumes.size());
+		assertEquals(2, library.size());
+		assertSame(one, library.getVolume(one.getId()));
+	}
+
+	public void testLinkCacheGeneration() {
+		LinkCache cache = new LinkCache(4);
+		List<Entry> entries = Collections.singletonList(new Entry("v", "b", 1));
+		long generation = cache.getGeneration();
+		cache.put("b", "v", entries, generation);
+		assertEquals("b", cache.get("b", "v").get(0).title);
+
+		generation = cache.getGeneration();
+		// volumes changed while the link was being resolved
+		cache.clear();
+		cache.put("c", "v", entries, generation);
+		assertNull(cache.get("c", "v"));
+		assertNull(cache.get("b", "v"));
+	}
+
+	private List<Entry> articleEntries() throws Exception {
+		Entry a = one.get(0);
+		List<Entry> entries = new ArrayList<Entry>();
+		entries.add(two.get(1));
+		entries.add(one.get(3));
+		entries.add(new Entry("missing", "x", 0));
+		entries.add(a);
+		entries.add(one.get(1));
+		// another title for the same article
+		entries.add(new Entry(a.volumeId, "alias", a.articlePointer));
+		entries.add(two.get(0));
+		entries.add(one.get(2));
+		return entries;
+	}
+
+	private void clearArticleCache() {
+		ArticleCache.shared.removeVolume(one.getId());
+		ArticleCache.shared.removeVolume(two.getId());
+	}
+
+	private void assertArticles(List<Entry> entries, List<Article> articles) throws Exception {
+		assertEquals(entries.size(), articles.size());
+		for (int i = 0; i < entries.size(); i++) {
+			Entry e = entries.get(i);
+			Article a = articles.get(i);
+			if (library.getVolume(e.volumeId) == null) {
+				assertNull(a);
+				continue;
+			}
+			clearArticleCache();
+			Article expected = library.getArticle(e);
+			assertEquals(e.volumeId, a.volumeId);
+			assertEquals(e.articlePointer, a.pointer);
+			assertEquals(e.title, a.title);
+			assertEquals(expected.text, a.text);
+			assertEquals(expected.getRedirect(), a.getRedirect());
+		}
+	}
+
+	private void checkGetArticles(ExecutorService executor) throws Exception {
+		library.add(one);
+		library.add(two);
+		List<Entry> entries = articleEntries();
+		clearArticleCache();
+		List<Article> articles = library.getArticles(entries, executor);
+		assertArticles(entries, articles);
+		assertEquals("<p>Article about e</p>", articles.get(1).text);
+		// one read for both titles, each gets its own copy
+		Article a = articles.get(3);
+		Article alias = articles.get(5);
+		assertFalse(a == alias);
+		assertEquals("a", a.title);
+		assertEquals("alias", alias.title);
+		assertEquals(a.text, alias.text);
+
+		// now partly from the article cache
+		clearArticleCache();
+		library.getArticle(one.get(1));
+		library.getArticle(two.get(0));
+		assertArticles(entries, library.getArticles(entries, executor));
+	}
+
+	public void testGetArticlesOneByOne() throws Exception {
+		checkGetArticles(null);
+	}
+
+	public void testGetArticlesInParallel() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			checkGetArticles(executor);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testGetArticlesOfClosedVolume() throws Exception {
+		library.add(one);
+		List<Entry> entries = Arrays.asList(two.get(0), one.get(0));
+		List<Article> articles = library.getArticles(entries, null);
+		assertNull(articles.get(0));
+		assertEquals("a", articles.get(1).title);
+		assertTrue(library.getArticles(Collections.<Entry> emptyList(), null).isEmpty());
+	}
+}
@@ -0,0 +1,70 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+
+package aarddict;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestLongHashSet extends TestCase {
+
+	public void testAddContains() {
+		LongHashSet set = new LongHashSet();
+		assertTrue(set.isEmpty());
+		assertTrue(set.add(0));
+		assertTrue(set.add(1L << 32 | 7));
+		assertFalse(set.add(0));
+		assertTrue(set.contains(0));
+		assertTrue(set.contains(1L << 32 | 7));
+		assertFalse(set.contains(7));
+		assertFalse(set.contains(1L << 32));
+		assertEquals(2, set.size());
+		assertFalse(set.isEmpty());
+	}
+
+	public void testGrow() {
+		LongHashSet set = new LongHashSet(1);
+		Set<Long> expected = new HashSet<Long>();
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			// volume ordinal and index position, as lookups use it
+			long value = (long)random.nextInt(4) << 32 | random.nextInt(3000);
+			assertEquals(expected.add(value), set.add(value));
+		}
+		assertEquals(expected.size(), set.size());
+		for (int v = 0; v < 4; v++) {
+			for (int i = 0; i < 3000; i++) {
+				long value = (long)v << 32 | i;
+				assertEquals(expected.contains(value), set.contains(value));
+			}
+		}
+	}
+
+	public void testNegative() {
+		LongHashSet set = new LongHashSet();
+		try {
+			set.add(-1);
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+		assertFalse(set.contains(-1));
+		assertTrue(set.isEmpty());
+	}
+}
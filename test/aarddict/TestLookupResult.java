@@ -0,0 +1,205 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class TestLookupResult extends TestCase {
+
+	private File            dir;
+	private List<Volume>    volumes;
+	private ExecutorService executor;
+
+	/**
+	 * Titles that differ in case and accents, sort among each other at
+	 * weaker strengths and exceed the per volume limit.
+	 */
+	static String[] titles(String extra) {
+		List<String> titles = new ArrayList<String>();
+		String[] base = { "apple", "Apple", "APPLE", "applé", "Applé",
+				"apple pie", "Apple Pie", "applesauce", "application", "y",
+				"Y", "yak", "Yak", "york", "York", "YORK", "Yorkshire",
+				"zurich", "Zurich", "zürich", "Zürich", "ab", "Ab", "AB" };
+		Collections.addAll(titles, base);
+		for (int i = 0; i < 80; i++) {
+			titles.add("apple" + i);
+			titles.add((i % 2 == 0 ? "Yo" : "yo") + i);
+		}
+		titles.add(extra);
+		return titles.toArray(new String[titles.size()]);
+	}
+
+	final static String[] QUERIES = { "apple", "Apple", "APPLE", "applé",
+			"app", "a", "ab", "AB", "y", "Y", "yo", "Yo", "york", "zurich",
+			"Zürich", "apple pie", "apple7", "nothing", "application" };
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = VolumeWriter.tempDir("lookup");
+		volumes = new ArrayList<Volume>();
+		File cache = new File(dir, "cache");
+		volumes.add(VolumeWriter.open(VolumeWriter.write(dir, "one",
+				titles("appletree"), Collections.<String, String> emptyMap()), cache));
+		volumes.add(VolumeWriter.open(VolumeWriter.write(dir, "two",
+				titles("yonder"), Collections.<String, String> emptyMap()), cache));
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		for (Volume volume : volumes) {
+			volume.close();
+		}
+		VolumeWriter.delete(dir);
+	}
+
+	private List<String> iterate(String query) {
+		LookupWord word = LookupWord.splitWord(query);
+		MatchIterator i = new MatchIterator(EntryComparators.ALL, volumes,
+				word, executor, LookupToken.NONE, null, false, false);
+		List<String> result = new ArrayList<String>();
+		while (i.hasNext()) {
+			Entry e = i.next();
+			result.add(e.volumeId + " " + e.title);
+		}
+		return result;
+	}
+
+	private List<String> page(String query) {
+		LookupWord word = LookupWord.splitWord(query);
+		LookupResult r = new LookupResult(query, EntryComparators.ALL,
+				volumes, word, executor, LookupToken.NONE, null, false, false);
+		List<String> result = new ArrayList<String>();
+		for (Entry e : r.getPage(0, r.size())) {
+			result.add(e.volumeId + " " + e.title);
+		}
+		return result;
+	}
+
+	private LookupResult lookup(String query) {
+		LookupWord word = LookupWord.splitWord(query);
+		return new LookupResult(query, EntryComparators.ALL, volumes, word,
+				executor, LookupToken.NONE, null, false, false);
+	}
+
+	/**
+	 * Queries with fewer matches per volume than the iterator's limit and
+	 * no case variants sorting among a tier's matches.
+	 */
+	final static String[] SMALL = { "apple pie", "nothing", "application",
+			"zurich", "Zürich", "ab", "AB" };
+
+	public void testSameMatchesAsMatchIterator() {
+		for (String query : SMALL) {
+			assertEquals(query, iterate(query), page(query));
+		}
+	}
+
+	public void testCountsFromBounds() {
+		for (String query : QUERIES) {
+			LookupWord word = LookupWord.splitWord(query);
+			int expected = 0;
+			for (Volume volume : volumes) {
+				VolumeMatches m = new VolumeMatches(volume, word,
+						EntryComparators.ALL, LookupToken.NONE);
+				expected += m.hi - m.lo;
+			}
+			LookupResult r = lookup(query);
+			assertEquals(query, expected, r.getRangeCount());
+			int sum = 0;
+			for (int t = 0; t < r.getTierCount(); t++) {
+				sum += r.getCount(t);
+			}
+			assertEquals(query, r.getRangeCount(), sum);
+		}
+	}
+
+	public void testNoLimitPerVolume() {
+		LookupResult r = lookup("apple");
+		assertTrue(r.size() > volumes.size() * 80);
+		List<String> titles = new ArrayList<String>();
+		for (Entry e : r.getPage(0, r.size())) {
+			titles.add(e.volumeId + " " + e.title);
+		}
+		for (Volume volume : volumes) {
+			for (int i = 0; i < 80; i++) {
+				assertTrue(titles.contains(volume.getId() + " apple" + i));
+			}
+		}
+		assertEquals(titles.size(), new HashSet<String>(titles).size());
+	}
+
+	public void testStrongestTierFirst() {
+		LookupResult r = lookup("apple");
+		assertEquals(volumes.size(), r.getCount(0));
+		List<Entry> first = r.getPage(0, volumes.size());
+		for (int v = 0; v < volumes.size(); v++) {
+			assertEquals(volumes.get(v).getId(), first.get(v).volumeId);
+			assertEquals("apple", first.get(v).title);
+		}
+	}
+
+	public void testPages() {
+		LookupResult r = lookup("a");
+		List<Entry> all = r.getPage(0, r.size());
+		List<Entry> paged = new ArrayList<Entry>();
+		for (int offset = 0; offset < r.size(); offset += 7) {
+			paged.addAll(r.getPage(offset, 7));
+		}
+		assertEquals(all, paged);
+		for (int i = 0; i < all.size(); i += 13) {
+			assertEquals(all.get(i), r.get(i));
+		}
+	}
+
+	public void testSubtract() {
+		assertIntervals(new int[] { 1, 3 }, LookupResult.subtract(new int[] { 1, 3 }, new int[0]));
+		assertIntervals(new int[0], LookupResult.subtract(new int[] { 1, 3 }, new int[] { 0, 5 }));
+		assertIntervals(new int[] { 1, 2, 4, 6 },
+				LookupResult.subtract(new int[] { 1, 6 }, new int[] { 2, 4 }));
+		assertIntervals(new int[] { 3, 5, 7, 8 },
+				LookupResult.subtract(new int[] { 1, 8 }, new int[] { 0, 3, 5, 7 }));
+		assertIntervals(new int[] { 1, 3 },
+				LookupResult.subtract(new int[] { 1, 3 }, new int[] { 3, 5 }));
+		assertIntervals(new int[0], LookupResult.subtract(new int[] { 2, 2 }, new int[0]));
+	}
+
+	public void testUnion() {
+		assertIntervals(new int[] { 1, 3 }, LookupResult.union(new int[0], new int[] { 1, 3 }));
+		assertIntervals(new int[] { 1, 3, 5, 7 },
+				LookupResult.union(new int[] { 5, 7 }, new int[] { 1, 3 }));
+		assertIntervals(new int[] { 1, 7 },
+				LookupResult.union(new int[] { 1, 3, 5, 7 }, new int[] { 3, 5 }));
+		assertIntervals(new int[] { 0, 10 },
+				LookupResult.union(new int[] { 1, 3, 5, 7 }, new int[] { 0, 10 }));
+		assertIntervals(new int[] { 1, 3 },
+				LookupResult.union(new int[] { 1, 3 }, new int[] { 2, 2 }));
+	}
+
+	private static void assertIntervals(int[] expected, int[] actual) {
+		assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+	}
+}
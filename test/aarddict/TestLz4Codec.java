@@ -0,0 +1,232 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+
+package aarddict;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestLz4Codec extends TestCase {
+
+	private final static int INDEPENDENT      = 0x60;
+	private final static int DEPENDENT        = 0x40;
+	private final static int BLOCK_CHECKSUM   = 0x10;
+	private final static int CONTENT_SIZE     = 0x08;
+	private final static int CONTENT_CHECKSUM = 0x04;
+
+	/**
+	 * Frame of empty input written by the lz4 command line tool.
+	 */
+	private final static byte[] EMPTY_FRAME = bytes(0x04, 0x22, 0x4D, 0x18,
+			0x64, 0x40, 0xA7, 0x00, 0x00, 0x00, 0x00, 0x05, 0x5D, 0xCC, 0x02);
+
+	private static byte[] bytes(int... values) {
+		byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (byte)values[i];
+		}
+		return result;
+	}
+
+	private static byte[] ascii(String s) throws IOException {
+		return s.getBytes("US-ASCII");
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream out, long value) {
+		for (int i = 0; i < 4; i++) {
+			out.write((int)(value >>> (8 * i)));
+		}
+	}
+
+	/**
+	 * Frame with <code>blocks</code> as compressed blocks and checksums
+	 * and content size as <code>flags</code> asks for.
+	 */
+	private static byte[] frame(int flags, byte[] content, byte[]... blocks) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeIntLE(out, 0x184D2204);
+		ByteArrayOutputStream descriptor = new ByteArrayOutputStream();
+		descriptor.write(flags);
+		descriptor.write(0x40);
+		if ((flags & CONTENT_SIZE) != 0) {
+			writeIntLE(descriptor, content.length);
+			writeIntLE(descriptor, 0);
+		}
+		byte[] d = descriptor.toByteArray();
+		out.write(d, 0, d.length);
+		out.write(Lz4Codec.xxh32(d, 0, d.length, 0) >> 8);
+		for (byte[] block : blocks) {
+			writeIntLE(out, block.length);
+			out.write(block, 0, block.length);
+			if ((flags & BLOCK_CHECKSUM) != 0) {
+				writeIntLE(out, Lz4Codec.xxh32(block, 0, block.length, 0));
+			}
+		}
+		writeIntLE(out, 0);
+		if ((flags & CONTENT_CHECKSUM) != 0) {
+			writeIntLE(out, Lz4Codec.xxh32(content, 0, content.length, 0));
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] decode(byte[] data, int length) throws IOException {
+		Codec.Buffer out = new Codec.Buffer(16);
+		Codecs.LZ4.decode(data, 0, length, out);
+		byte[] result = new byte[out.length];
+		System.arraycopy(out.data, 0, result, 0, out.length);
+		return result;
+	}
+
+	private static byte[] decode(byte[] data) throws IOException {
+		return decode(data, data.length);
+	}
+
+	private static void assertFails(byte[] data, int length) {
+		try {
+			decode(data, length);
+			fail("Decoded invalid lz4 data of length " + length);
+		}
+		catch (IOException e) {
+		}
+	}
+
+	public void testXxh32() throws IOException {
+		byte[] s = ascii("Nobody inspects the spammish repetition");
+		assertEquals(0x02CC5D05, Lz4Codec.xxh32(new byte[0], 0, 0, 0));
+		assertEquals(0x32D153FF, Lz4Codec.xxh32(ascii("abc"), 0, 3, 0));
+		assertEquals(0xE2293B2F, Lz4Codec.xxh32(s, 0, s.length, 0));
+	}
+
+	public void testEmptyFrame() throws IOException {
+		assertTrue(Codecs.LZ4.matches(EMPTY_FRAME, 0, EMPTY_FRAME.length));
+		assertEquals(0, decode(EMPTY_FRAME).length);
+		assertEquals(EMPTY_FRAME[6] & 0xff,
+				(Lz4Codec.xxh32(EMPTY_FRAME, 4, 2, 0) >> 8) & 0xff);
+	}
+
+	public void testLongLiterals() throws IOException {
+		byte[] content = new byte[300];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte)('a' + i % 26);
+		}
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		// 15 + 255 + 30 literals
+		block.write(0xF0);
+		block.write(255);
+		block.write(30);
+		block.write(content, 0, content.length);
+		byte[] data = frame(INDEPENDENT | CONTENT_CHECKSUM, content, block.toByteArray());
+		assertTrue(Arrays.equals(content, decode(data)));
+	}
+
+	public void testLongOverlappingMatch() throws IOException {
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 51; i++) {
+			expected.append("ab");
+		}
+		expected.append("xxxxx");
+		byte[] content = ascii(expected.toString());
+		// "ab", then 100 bytes from 2 back: 4 + 15 + 81, then "xxxxx"
+		byte[] block = bytes(0x2F, 'a', 'b', 0x02, 0x00, 81, 0x50, 'x', 'x', 'x', 'x', 'x');
+		byte[] data = frame(INDEPENDENT | CONTENT_CHECKSUM, content, block);
+		assertTrue(Arrays.equals(content, decode(data)));
+	}
+
+	public void testDependentBlocks() throws IOException {
+		byte[] first = new byte[13];
+		first[0] = (byte)0xC0;
+		System.arraycopy(ascii("hello world "), 0, first, 1, 12);
+		// 12 bytes from the previous block, then "!"
+		byte[] second = bytes(0x08, 12, 0x00, 0x10, '!');
+		byte[] content = ascii("hello world hello world !");
+		byte[] data = frame(DEPENDENT | CONTENT_CHECKSUM, content, first, second);
+		assertTrue(Arrays.equals(content, decode(data)));
+
+		byte[] independent = frame(INDEPENDENT, content, first, second);
+		assertFails(independent, independent.length);
+	}
+
+	public void testUncompressedBlock() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] frame = frame(INDEPENDENT, new byte[0]);
+		out.write(frame, 0, 7);
+		writeIntLE(out, 0x80000003L);
+		out.write('a');
+		out.write('b');
+		out.write('c');
+		writeIntLE(out, 0);
+		assertEquals("abc", new String(decode(out.toByteArray()), "US-ASCII"));
+	}
+
+	public void testSkippableFrame() throws IOException {
+		byte[] content = ascii("abc");
+		byte[] frame = frame(INDEPENDENT, content, bytes(0x30, 'a', 'b', 'c'));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeIntLE(out, 0x184D2A53);
+		writeIntLE(out, 3);
+		out.write(1);
+		out.write(2);
+		out.write(3);
+		out.write(frame, 0, frame.length);
+		assertEquals("abc", new String(decode(out.toByteArray()), "US-ASCII"));
+	}
+
+	public void testChecksums() throws IOException {
+		byte[] content = ascii("abcabcabcabc");
+		byte[] block = bytes(0x32, 'a', 'b', 'c', 0x03, 0x00, 0x30, 'a', 'b', 'c');
+		byte[] data = frame(INDEPENDENT | BLOCK_CHECKSUM | CONTENT_SIZE | CONTENT_CHECKSUM,
+				content, block);
+		assertTrue(Arrays.equals(content, decode(data)));
+		// header, block, block checksum and content checksum bytes
+		int headerChecksum = 4 + 2 + 8;
+		int blockStart = headerChecksum + 1 + 4;
+		int blockChecksum = blockStart + block.length;
+		int contentChecksum = blockChecksum + 4 + 4;
+		assertEquals(data.length, contentChecksum + 4);
+		for (int i : new int[] { headerChecksum, blockStart + 1, blockChecksum, contentChecksum }) {
+			byte[] corrupt = data.clone();
+			corrupt[i] ^= 0x01;
+			assertFails(corrupt, corrupt.length);
+		}
+		byte[] wrongSize = frame(INDEPENDENT | CONTENT_SIZE, ascii("abc"), block);
+		assertFails(wrongSize, wrongSize.length);
+	}
+
+	public void testTruncated() throws IOException {
+		byte[] content = ascii("hello world hello world !");
+		byte[] first = new byte[13];
+		first[0] = (byte)0xC0;
+		System.arraycopy(ascii("hello world "), 0, first, 1, 12);
+		byte[] data = frame(DEPENDENT | CONTENT_CHECKSUM, content, first,
+				bytes(0x08, 12, 0x00, 0x10, '!'));
+		for (int length = 1; length < data.length; length++) {
+			assertFails(data, length);
+		}
+		// a block cut short within a frame that is not
+		byte[] cut = frame(INDEPENDENT, content, bytes(0xF0, 255));
+		assertFails(cut, cut.length);
+		cut = frame(INDEPENDENT, content, bytes(0x10, 'a', 0x01));
+		assertFails(cut, cut.length);
+	}
+
+	public void testInvalidMatchOffset() throws IOException {
+		byte[] data = frame(INDEPENDENT, new byte[0], bytes(0x10, 'a', 0x02, 0x00, 0x10, 'b'));
+		assertFails(data, data.length);
+	}
+}
@@ -0,0 +1,213 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+
+package aarddict;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class TestMatchIterator extends TestCase {
+
+	private File            dir;
+	private List<Volume>    volumes;
+	private ExecutorService executor;
+
+	final static String[] QUERIES = { "apple#Taste", "york#History", "yo7",
+			"apple pie", "applesauce", "appletree", "yonder", "Yorkshire" };
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = VolumeWriter.tempDir("matches");
+		volumes = new ArrayList<Volume>();
+		File cache = new File(dir, "cache");
+		volumes.add(VolumeWriter.open(VolumeWriter.write(dir, "one",
+				TestLookupResult.titles("appletree"),
+				Collections.<String, String> emptyMap()), cache));
+		volumes.add(VolumeWriter.open(VolumeWriter.write(dir, "two",
+				TestLookupResult.titles("yonder"),
+				Collections.<String, String> emptyMap()), cache));
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		for (Volume volume : volumes) {
+			volume.close();
+		}
+		VolumeWriter.delete(dir);
+	}
+
+	/**
+	 * Matches the way lookups found them before volumes were searched
+	 * with key samples and galloping: a plain binary search of each volume
+	 * for each tier, then entries in index order while they compare equal,
+	 * at most MAX_FROM_VOL + 1 per tier and volume, skipping entries
+	 * returned before.
+	 */
+	private List<String> reference(String query) {
+		LookupWord word = LookupWord.splitWord(query);
+		List<String> result = new ArrayList<String>();
+		Set<String> seen = new HashSet<String>();
+		for (Comparator<Entry> c : EntryComparators.ALL) {
+			for (Volume volume : volumes) {
+				Entry key = new Entry(volume.getId(), word.word);
+				int lo = 0;
+				int hi = volume.size();
+				while (lo < hi) {
+					int mid = (lo + hi) / 2;
+					if (c.compare(volume.get(mid), key) < 0) {
+						lo = mid + 1;
+					}
+					else {
+						hi = mid;
+					}
+				}
+				int count = 0;
+				for (int i = lo; i < volume.size() && count <= MatchIterator.MAX_FROM_VOL; i++) {
+					Entry e = volume.get(i);
+					if (c.compare(e, key) != 0) {
+						break;
+					}
+					if (seen.add(e.volumeId + " " + i)) {
+						result.add(format(e.volumeId, e.title, word.section));
+						count++;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Whether titles that compare less than, equal to and greater than
+	 * the query come in that order in every volume and tier, which is
+	 * when a binary search finds the same matches however it probes.
+	 * Titles differing only in case or accents can interleave otherwise,
+	 * for instance "y", "Y", "yak", "Yak" for a case sensitive "Y" prefix.
+	 */
+	private boolean isSorted(String query) {
+		LookupWord word = LookupWord.splitWord(query);
+		for (Comparator<Entry> c : EntryComparators.ALL) {
+			for (Volume volume : volumes) {
+				Entry key = new Entry(volume.getId(), word.word);
+				int previous = -1;
+				for (int i = 0; i < volume.size(); i++) {
+					int cmp = Integer.signum(c.compare(volume.get(i), key));
+					if (cmp < previous) {
+						return false;
+					}
+					previous = cmp;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static String format(String volumeId, String title, String section) {
+		return volumeId + " " + title + "#" + section;
+	}
+
+	private List<String> iterate(String query, ExecutorService executor, LookupSession session) {
+		MatchIterator i = new MatchIterator(EntryComparators.ALL, volumes,
+				LookupWord.splitWord(query), executor, LookupToken.NONE,
+				session, false, false);
+		List<String> result = new ArrayList<String>();
+		while (i.hasNext()) {
+			Entry e = i.next();
+			result.add(format(e.volumeId, e.title, e.section));
+		}
+		return result;
+	}
+
+	private static List<String> queries() {
+		List<String> queries = new ArrayList<String>();
+		Collections.addAll(queries, TestLookupResult.QUERIES);
+		Collections.addAll(queries, QUERIES);
+		return queries;
+	}
+
+	public void testSameMatchesAsBinarySearch() {
+		int checked = 0;
+		for (String query : queries()) {
+			if (!isSorted(query)) {
+				continue;
+			}
+			List<String> expected = reference(query);
+			assertEquals(query, expected, iterate(query, null, null));
+			assertEquals(query, expected, iterate(query, executor, null));
+			checked++;
+		}
+		assertTrue(checked > queries().size() / 2);
+	}
+
+	public void testSameMatchesWithSession() {
+		for (String query : queries()) {
+			LookupSession session = new LookupSession();
+			// typed one character at a time, each lookup narrowing the last
+			for (int length = 1; length <= query.length(); length++) {
+				String prefix = query.substring(0, length);
+				if (LookupWord.splitWord(prefix).isEmpty() || !isSorted(prefix)) {
+					continue;
+				}
+				assertEquals(prefix, reference(prefix), iterate(prefix, executor, session));
+			}
+		}
+	}
+
+	/**
+	 * Where matches interleave with other titles, every match returned
+	 * still matches in some tier and none is returned twice.
+	 */
+	public void testInterleavedMatches() {
+		for (String query : queries()) {
+			LookupWord word = LookupWord.splitWord(query);
+			MatchIterator i = new MatchIterator(EntryComparators.ALL, volumes,
+					word, executor, LookupToken.NONE, null, false, false);
+			Set<String> seen = new HashSet<String>();
+			while (i.hasNext()) {
+				Entry e = i.next();
+				assertTrue(query, seen.add(e.volumeId + " " + e.title));
+				boolean matches = false;
+				for (Comparator<Entry> c : EntryComparators.ALL) {
+					matches |= c.compare(e, new Entry(e.volumeId, word.word)) == 0;
+				}
+				assertTrue(query + ": " + e.title, matches);
+			}
+		}
+	}
+
+	public void testLimitPerVolume() {
+		List<String> matches = iterate("apple", executor, null);
+		int first = 0;
+		for (String match : matches) {
+			if (match.startsWith(volumes.get(0).getId())) {
+				first++;
+			}
+		}
+		assertTrue(first > MatchIterator.MAX_FROM_VOL);
+		assertTrue(first <= EntryComparators.ALL.length * (MatchIterator.MAX_FROM_VOL + 1));
+	}
+}
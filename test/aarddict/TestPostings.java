@@ -0,0 +1,96 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+
+package aarddict;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestPostings extends TestCase {
+
+	private final static int[] VALUES = { 0, 1, 127, 128, 300, 16383, 16384,
+			1 << 21, 1 << 28, Integer.MAX_VALUE };
+
+	public void testVarint() throws IOException {
+		for (int value : VALUES) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Postings.writeVarint(out, value);
+			byte[] data = out.toByteArray();
+			int bits = 32 - Integer.numberOfLeadingZeros(value);
+			assertEquals(Math.max(1, (bits + 6) / 7), data.length);
+			ByteArrayInputStream in = new ByteArrayInputStream(data);
+			assertEquals(value, Postings.readVarint(in));
+			assertEquals(-1, in.read());
+		}
+	}
+
+	public void testVarintTruncated() throws IOException {
+		try {
+			Postings.readVarint(new ByteArrayInputStream(new byte[] { (byte)0x80 }));
+			fail();
+		}
+		catch (EOFException e) {
+		}
+	}
+
+	public void testWriteDecode() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Postings.write(out, 0, VALUES, 0, VALUES.length);
+		byte[] data = out.toByteArray();
+		assertTrue(Arrays.equals(VALUES, Postings.decode(data, 0, data.length)));
+	}
+
+	public void testWriteInParts() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Postings.write(out, 0, VALUES, 0, 4);
+		Postings.write(out, VALUES[3], VALUES, 4, VALUES.length - 4);
+		byte[] data = out.toByteArray();
+		assertTrue(Arrays.equals(VALUES, Postings.decode(data, 0, data.length)));
+	}
+
+	public void testDecodeRange() throws IOException {
+		byte[] data = { 9, 9, 3, 4, (byte)0x81, 0x01, 9 };
+		assertTrue(Arrays.equals(new int[] { 3, 7, 136 }, Postings.decode(data, 2, 4)));
+		assertEquals(0, Postings.decode(data, 2, 0).length);
+	}
+
+	public void testDecodeMalformed() {
+		byte[][] malformed = { { (byte)0x80 }, { 1, (byte)0xff, (byte)0xff },
+				{ (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x01 } };
+		for (byte[] data : malformed) {
+			try {
+				Postings.decode(data, 0, data.length);
+				fail(Arrays.toString(data));
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+
+	public void testCountingOutputStream() throws IOException {
+		Postings.CountingOutputStream out = new Postings.CountingOutputStream(
+				new ByteArrayOutputStream());
+		out.write(1);
+		out.write(new byte[10], 2, 5);
+		Postings.writeVarint(out, 300);
+		assertEquals(8, out.count);
+	}
+}
@@ -0,0 +1,204 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class TestRedirectTable extends TestCase {
+
+	private File    dir;
+	private boolean buildRedirects;
+	private Volume  volume;
+	private Library library;
+	private RedirectTable table;
+
+	@Override
+	protected void setUp() throws Exception {
+		buildRedirects = Volume.buildRedirects;
+		Volume.buildRedirects = false;
+		dir = VolumeWriter.tempDir("redirects");
+		Map<String, String> redirects = new HashMap<String, String>();
+		redirects.put("a1", "b1#s1");
+		redirects.put("b1", "c1#s2");
+		redirects.put("d1", "e1#s1");
+		redirects.put("e1", "f1");
+		redirects.put("g1", "h1");
+		redirects.put("h1", "i1#s3");
+		redirects.put("x1", "y1");
+		redirects.put("y1", "x1");
+		redirects.put("u1", "missing");
+		File f = VolumeWriter.write(dir, "redirects", new String[] { "a1", "b1",
+				"c1", "d1", "e1", "f1", "g1", "h1", "i1", "x1", "y1", "u1" },
+				redirects);
+		volume = VolumeWriter.open(f, new File(dir, "cache"));
+		library = new Library();
+		library.add(volume);
+		File tableFile = new File(dir, volume.getId() + ".redirects");
+		RedirectTable.build(volume, tableFile, new LookupToken());
+		table = RedirectTable.open(tableFile, volume.getId(), volume.size());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		table.close();
+		library.shutdown();
+		volume.close();
+		VolumeWriter.delete(dir);
+		Volume.buildRedirects = buildRedirects;
+	}
+
+	private Entry entry(String title) {
+		for (Entry e : volume) {
+			if (e.title.equals(title)) {
+				return e;
+			}
+		}
+		throw new AssertionError("No title " + title);
+	}
+
+	private RedirectTable.Target target(String title) throws Exception {
+		return table.get(entry(title).articlePointer);
+	}
+
+	private void assertTarget(String from, String title, String section, int depth)
+			throws Exception {
+		RedirectTable.Target target = target(from);
+		assertNotNull(from, target);
+		assertEquals(title, volume.get(target.index).title);
+		assertEquals(section, target.section);
+		assertEquals(depth, target.depth);
+
+		Article article = library.redirect(library.getArticle(entry(from)));
+		assertEquals(title, article.title);
+		assertEquals(section, article.section);
+	}
+
+	public void testSectionsOnBothHops() throws Exception {
+		assertTarget("a1", "c1", "s2", 2);
+		assertTarget("b1", "c1", "s2", 1);
+	}
+
+	public void testSectionKeptWhenNextLinkHasNone() throws Exception {
+		assertTarget("d1", "f1", "s1", 2);
+		assertTarget("e1", "f1", null, 1);
+	}
+
+	public void testSectionOfLastHop() throws Exception {
+		assertTarget("g1", "i1", "s3", 2);
+	}
+
+	public void testLoop() throws Exception {
+		assertTrue(target("x1").isLoop());
+		try {
+			library.redirect(library.getArticle(entry("x1")));
+			fail("Loop followed");
+		}
+		catch (RedirectTooManyLevels e) {
+		}
+	}
+
+	public void testUnresolved() throws Exception {
+		assertNull(target("u1"));
+	}
+
+	public void testNotRedirect() throws Exception {
+		assertNull(target("c1"));
+		assertNull(target("f1"));
+	}
+
+	public void testRedirectBits() throws Exception {
+		for (int i = 0; i < volume.size(); i++) {
+			String title = volume.get(i).title;
+			boolean redirect = !title.equals("c1") && !title.equals("f1")
+					&& !title.equals("i1");
+			assertEquals(title, redirect, table.isRedirect(i));
+		}
+		assertEquals(volume.size() - 3, table.countRedirects(0, volume.size()));
+	}
+
+	public void testBitsAcrossWords() throws Exception {
+		Map<String, String> redirects = new HashMap<String, String>();
+		String[] titles = new String[200];
+		for (int i = 0; i < titles.length; i++) {
+			titles[i] = String.format("t%03d", i);
+			if (i % 3 == 0 || (i > 60 && i < 140)) {
+				redirects.put(titles[i], "t001");
+			}
+		}
+		Volume v = VolumeWriter.open(VolumeWriter.write(dir, "bits", titles,
+				redirects), new File(dir, "cache"));
+		File tableFile = new File(dir, v.getId() + ".redirects");
+		RedirectTable.build(v, tableFile, new LookupToken());
+		RedirectTable t = RedirectTable.open(tableFile, v.getId(), v.size());
+		try {
+			for (int from = 0; from < titles.length; from += 7) {
+				for (int to = from; to <= titles.length; to += 11) {
+					int expected = 0;
+					for (int i = from; i < to; i++) {
+						if (redirects.containsKey(v.get(i).title)) {
+							expected++;
+						}
+					}
+					assertEquals(from + " " + to, expected, t.countRedirects(from, to));
+				}
+				int n = 0;
+				for (int i = from; i < titles.length; i++) {
+					if (!redirects.containsKey(v.get(i).title)) {
+						assertEquals(i, t.nonRedirect(from, n++));
+					}
+				}
+				assertEquals(titles.length, t.nonRedirect(from, n));
+			}
+		}
+		finally {
+			t.close();
+			v.close();
+		}
+	}
+
+	private LookupResult lookup(String word) {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			return new LookupResult(word, EntryComparators.ALL, library.getVolumes(),
+					LookupWord.splitWord(word), executor, LookupToken.NONE, null,
+					false, false);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testLookupLeavesOutPrefixRedirects() throws Exception {
+		assertEquals(1, lookup("a").size());
+		volume.redirects = table;
+		try {
+			assertEquals(0, lookup("a").size());
+			assertEquals(1, lookup("a1").size());
+			LookupResult c = lookup("c");
+			assertEquals(1, c.size());
+			assertEquals("c1", c.get(0).title);
+		}
+		finally {
+			volume.redirects = null;
+		}
+	}
+}
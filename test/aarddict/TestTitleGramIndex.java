@@ -0,0 +1,290 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class TestTitleGramIndex extends TestCase {
+
+	final static String[] TITLES = { "New York", "York", "Yorkshire",
+			"New Jersey", "Newark", "Boston", "Austin", "Houston", "Yonkers",
+			"Dallas", "apple", "Apple", "Zürich", "zurich", "Old York Road" };
+
+	private File           dir;
+	private Volume         volume;
+	private TitleGramIndex index;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = VolumeWriter.tempDir("grams");
+		volume = VolumeWriter.open(VolumeWriter.write(dir, "grams", TITLES,
+				Collections.<String, String> emptyMap()), new File(dir, "cache"));
+		index = build(volume, new File(dir, "test.grams"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		index.close();
+		volume.close();
+		VolumeWriter.delete(dir);
+	}
+
+	static TitleGramIndex build(Volume volume, File f) throws Exception {
+		TitleGramIndex.build(volume, f);
+		TitleGramIndex index = TitleGramIndex.open(f, volume.getId(), volume.size());
+		assertNotNull(index);
+		return index;
+	}
+
+	private static long[] grams(String title) {
+		return TitleGramIndex.grams(TitleGramIndex.normalize(title), true);
+	}
+
+	/**
+	 * Positions of titles containing <code>gram</code>, found by reading
+	 * all titles.
+	 */
+	static int[] expectedPostings(Volume volume, long gram) {
+		List<Integer> positions = new ArrayList<Integer>();
+		for (int i = 0; i < volume.size(); i++) {
+			if (Arrays.binarySearch(grams(volume.get(i).title), gram) >= 0) {
+				positions.add(i);
+			}
+		}
+		int[] result = new int[positions.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = positions.get(i);
+		}
+		return result;
+	}
+
+	static void assertPostings(Volume volume, TitleGramIndex index) throws Exception {
+		Map<Long, List<Integer>> expected = new TreeMap<Long, List<Integer>>();
+		for (int i = 0; i < volume.size(); i++) {
+			for (long gram : grams(volume.get(i).title)) {
+				List<Integer> positions = expected.get(gram);
+				if (positions == null) {
+					positions = new ArrayList<Integer>();
+					expected.put(gram, positions);
+				}
+				positions.add(i);
+			}
+		}
+		for (Map.Entry<Long, List<Integer>> e : expected.entrySet()) {
+			int[] postings = index.postings(e.getKey());
+			List<Integer> actual = new ArrayList<Integer>(postings.length);
+			for (int p : postings) {
+				actual.add(p);
+			}
+			assertEquals(Long.toHexString(e.getKey()), e.getValue(), actual);
+		}
+	}
+
+	public void testNormalize() {
+		assertEquals("zurich", TitleGramIndex.normalize("Zürich"));
+		assertEquals("new york", TitleGramIndex.normalize("NEW York"));
+	}
+
+	public void testGrams() {
+		assertEquals(2, TitleGramIndex.grams("york", false).length);
+		assertEquals(0, TitleGramIndex.grams("yo", false).length);
+		assertEquals(4, TitleGramIndex.grams("yo", true).length);
+		// "aaa" occurs twice in padded "aaaa" and is kept once
+		assertEquals(5, TitleGramIndex.grams("aaaa", true).length);
+	}
+
+	public void testPostings() throws Exception {
+		assertPostings(volume, index);
+		assertEquals(0, index.postings(TitleGramIndex.gram("qqq", 0)).length);
+	}
+
+	public void testPostingsSize() throws Exception {
+		long gram = TitleGramIndex.gram("ork", 0);
+		assertTrue(index.postingsSize(gram) >= index.postings(gram).length);
+		assertEquals(0, index.postingsSize(TitleGramIndex.gram("qqq", 0)));
+	}
+
+	private int[] sharing(long[] grams, int minCount, int shared) {
+		List<Integer> positions = new ArrayList<Integer>();
+		for (int i = 0; i < volume.size(); i++) {
+			long[] titleGrams = grams(volume.get(i).title);
+			int count = 0;
+			for (long gram : grams) {
+				if (Arrays.binarySearch(titleGrams, gram) >= 0) {
+					count++;
+				}
+			}
+			if (count >= minCount && (shared == -1 || count == shared)) {
+				positions.add(i);
+			}
+		}
+		int[] result = new int[positions.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = positions.get(i);
+		}
+		return result;
+	}
+
+	public void testCandidates() throws Exception {
+		long[] grams = TitleGramIndex.grams("york", false);
+		int[] candidates = index.candidates(grams, grams.length, LookupToken.NONE);
+		assertEquals(Arrays.toString(sharing(grams, grams.length, -1)),
+				Arrays.toString(candidates));
+		assertEquals(4, candidates.length);
+	}
+
+	public void testRankedCandidates() throws Exception {
+		long[] grams = grams("yorkston");
+		int[] ranked = index.rankedCandidates(grams, 2, LookupToken.NONE);
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int shared = grams.length; shared >= 2; shared--) {
+			for (int i : sharing(grams, 2, shared)) {
+				expected.add(i);
+			}
+		}
+		List<Integer> actual = new ArrayList<Integer>();
+		for (int i : ranked) {
+			actual.add(i);
+		}
+		assertEquals(expected, actual);
+		assertEquals("Yorkshire", volume.get(ranked[0]).title);
+	}
+
+	private static String[] manyTitles() {
+		String[] titles = new String[TitleGramIndex.SEGMENT_SIZE + 1000];
+		for (int i = 0; i < titles.length; i++) {
+			titles[i] = String.format("t%05d", i) + (i % 100 == 0 ? " New York" : "");
+		}
+		return titles;
+	}
+
+	private File segment(File target, int s) {
+		return new File(dir, target.getName() + "." + s + ".seg");
+	}
+
+	public void testSegments() throws Exception {
+		Volume large = VolumeWriter.open(VolumeWriter.write(dir, "large", manyTitles(),
+				Collections.<String, String> emptyMap()), new File(dir, "cache"));
+		File target = new File(dir, "large.grams");
+		TitleGramIndex largeIndex = build(large, target);
+		try {
+			assertFalse(segment(target, 0).exists());
+			// in every title, so its postings continue from the first
+			// segment into the second
+			int[] all = largeIndex.postings(TitleGramIndex.gram("\u0000\u0000t", 0));
+			assertEquals(large.size(), all.length);
+			for (int i = 0; i < all.length; i++) {
+				assertEquals(i, all[i]);
+			}
+			assertPostings(large, largeIndex);
+		}
+		finally {
+			largeIndex.close();
+			large.close();
+		}
+	}
+
+	public void testResume() throws Exception {
+		Volume large = VolumeWriter.open(VolumeWriter.write(dir, "large", manyTitles(),
+				Collections.<String, String> emptyMap()), new File(dir, "cache"));
+		File target = new File(dir, "large.grams");
+		// a directory in place of the second segment's temporary file
+		// stops the build after the first segment
+		File blocked = new File(segment(target, 1).getPath() + ".tmp");
+		assertTrue(blocked.mkdir());
+		try {
+			TitleGramIndex.build(large, target);
+			fail("Build finished");
+		}
+		catch (IOException e) {
+		}
+		assertTrue(segment(target, 0).exists());
+		assertFalse(segment(target, 1).exists());
+		assertFalse(target.exists());
+		assertTrue(blocked.delete());
+
+		// the first segment is not built again, so the same trick on it
+		// doesn't stop the resumed build
+		File kept = new File(segment(target, 0).getPath() + ".tmp");
+		assertTrue(kept.mkdir());
+		TitleGramIndex largeIndex = build(large, target);
+		try {
+			assertTrue(kept.delete());
+			assertPostings(large, largeIndex);
+		}
+		finally {
+			largeIndex.close();
+			large.close();
+		}
+	}
+
+	private List<String> infix(String word) {
+		InfixMatches matches = new InfixMatches(volume, LookupWord.splitWord(word),
+				LookupToken.NONE);
+		List<String> result = new ArrayList<String>();
+		while (matches.hasNext()) {
+			result.add(matches.next().title);
+		}
+		return result;
+	}
+
+	public void testInfixMatches() throws Exception {
+		volume.titleGrams = index;
+		try {
+			assertEquals(Arrays.asList("New York", "Old York Road", "York", "Yorkshire"),
+					infix("york"));
+			assertEquals(Arrays.asList("Old York Road"), infix("d york r"));
+			assertEquals(Arrays.asList("zurich", "Zürich"), infix("URIC"));
+			assertTrue(infix("yo").isEmpty());
+			assertTrue(infix("kroy").isEmpty());
+		}
+		finally {
+			volume.titleGrams = null;
+		}
+	}
+
+	public void testLookupFindsInfix() throws Exception {
+		volume.titleGrams = index;
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			LookupResult r = new LookupResult("york", EntryComparators.ALL,
+					Collections.singletonList(volume), LookupWord.splitWord("york"),
+					executor, LookupToken.NONE, null, true, false);
+			List<String> titles = new ArrayList<String>();
+			for (Entry e : r.getPage(0, r.size())) {
+				titles.add(e.title);
+			}
+			assertEquals(Arrays.asList("York", "Yorkshire", "New York", "Old York Road"),
+					titles);
+			assertEquals(2, r.getRangeCount());
+		}
+		finally {
+			executor.shutdown();
+			volume.titleGrams = null;
+		}
+	}
+}
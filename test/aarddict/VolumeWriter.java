@@ -0,0 +1,183 @@
+/* This file is part of Aard Dictionary for Android <http://aarddict.org>.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License <http://www.gnu.org/licenses/gpl-3.0.txt>
+ * for more details.
+ * 
+ * Copyright (C) 2010 Igor Tkach
+*/
+
+package aarddict;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+import com.ibm.icu.text.Collator;
+import com.ibm.icu.util.ULocale;
+
+/**
+ * Writes small volumes for tests. Titles are sorted with the root
+ * collator, articles are zlib compressed and a title listed in
+ * <code>redirects</code> gets a redirect article instead of text.
+ */
+final class VolumeWriter {
+
+	private VolumeWriter() {
+	}
+
+	static File write(File dir, String name, String[] titles,
+			Map<String, String> redirects) throws IOException {
+		String[] sorted = titles.clone();
+		Collator collator = Collator.getInstance(ULocale.ROOT);
+		collator.setStrength(Collator.TERTIARY);
+		Arrays.sort(sorted, collator);
+		ByteArrayOutputStream index1 = new ByteArrayOutputStream();
+		ByteArrayOutputStream index2 = new ByteArrayOutputStream();
+		ByteArrayOutputStream articles = new ByteArrayOutputStream();
+		DataOutputStream idx1 = new DataOutputStream(index1);
+		DataOutputStream idx2 = new DataOutputStream(index2);
+		DataOutputStream arts = new DataOutputStream(articles);
+		for (String title : sorted) {
+			byte[] key = title.getBytes("UTF-8");
+			Object[] tuple;
+			if (redirects.containsKey(title)) {
+				Map<String, String> metadata = new HashMap<String, String>();
+				metadata.put("r", redirects.get(title));
+				tuple = new Object[] { "", new Object[0], metadata };
+			}
+			else {
+				tuple = new Object[] { "<p>Article about " + title + "</p>",
+						new Object[0], new HashMap<String, String>() };
+			}
+			byte[] article = deflate(json(tuple));
+			idx1.writeInt(idx2.size());
+			idx1.writeInt(arts.size());
+			idx2.writeShort(key.length);
+			idx2.write(key);
+			arts.writeInt(article.length);
+			arts.write(article);
+		}
+		Map<String, Object> general = new HashMap<String, Object>();
+		general.put("server", "http://test.org");
+		general.put("articlepath", "/wiki/$1");
+		Map<String, Object> siteinfo = new HashMap<String, Object>();
+		siteinfo.put("general", general);
+		Map<String, Object> meta = new HashMap<String, Object>();
+		meta.put("title", name);
+		meta.put("lang", "en");
+		meta.put("article_count", sorted.length);
+		meta.put("index_count", sorted.length);
+		meta.put("siteinfo", siteinfo);
+		byte[] metadata = deflate(json(meta));
+
+		int specLength = 4 + 40 + 2 + 16 + 2 + 2 + 4 + 4 + 4 + 4 + 2 + 2;
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		out.writeShort(1);
+		UUID uuid = UUID.randomUUID();
+		out.writeLong(uuid.getMostSignificantBits());
+		out.writeLong(uuid.getLeastSignificantBits());
+		out.writeShort(1);
+		out.writeShort(1);
+		out.writeInt(metadata.length);
+		out.writeInt(sorted.length);
+		out.writeInt(specLength + metadata.length + index1.size() + index2.size());
+		out.write(">LL\0".getBytes("US-ASCII"));
+		out.write(">H".getBytes("US-ASCII"));
+		out.write(">L".getBytes("US-ASCII"));
+		out.write(metadata);
+		index1.writeTo(out);
+		index2.writeTo(out);
+		articles.writeTo(out);
+		out.flush();
+
+		File f = new File(dir, name + ".aar");
+		FileOutputStream file = new FileOutputStream(f);
+		try {
+			file.write("aard".getBytes("US-ASCII"));
+			file.write(sha1(body.toByteArray()).getBytes("US-ASCII"));
+			body.writeTo(file);
+		}
+		finally {
+			file.close();
+		}
+		return f;
+	}
+
+	static Volume open(File f, File cacheDir) throws IOException {
+		cacheDir.mkdirs();
+		try {
+			return new Volume(f, cacheDir, cacheDir, new HashMap<UUID, Metadata>());
+		}
+		catch (Volume.FormatException e) {
+			throw new IOException(e.toString());
+		}
+	}
+
+	static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		f.delete();
+	}
+
+	static File tempDir(String name) {
+		File dir = new File(System.getProperty("java.io.tmpdir"), name + "-" + System.nanoTime());
+		dir.mkdirs();
+		return dir;
+	}
+
+	private static byte[] json(Object value) throws IOException {
+		StringWriter w = new StringWriter();
+		Volume.mapper.writeValue(w, value);
+		return w.toString().getBytes("UTF-8");
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			out.write(buf, 0, n);
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	private static String sha1(byte[] data) throws IOException {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+			StringBuilder s = new StringBuilder();
+			for (byte b : digest) {
+				s.append(String.format("%02x", b & 0xff));
+			}
+			return s.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.toString());
+		}
+	}
+}